@@ -0,0 +1,139 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 生成不同规模和形状的结构文件，格式与Create上传的NBT结构一致
+public final class SchematicFixtures {
+    public enum Shape {
+        // 几百个方块的小房子，少量告示牌和箱子
+        SMALL_HOUSE,
+        // 约10万个方块的大型建筑
+        LARGE_BUILD,
+        // 多层嵌套的潜影盒/箱子物品
+        NESTED_CONTAINERS,
+        // 每个方块实体都带有大量组件的恶意载荷
+        MANY_COMPONENTS
+    }
+
+    private static final String[] PALETTE = {
+        "minecraft:stone", "minecraft:oak_planks", "minecraft:glass", "minecraft:oak_log",
+        "minecraft:chest", "minecraft:oak_sign", "create:clipboard", "minecraft:air"
+    };
+
+    private SchematicFixtures() {
+    }
+
+    public static CompoundTag create(Shape shape) {
+        Random random = new Random(shape.ordinal());
+        return switch (shape) {
+            case SMALL_HOUSE -> structure(random, 8, 6, 8, 16, 0, 1);
+            case LARGE_BUILD -> structure(random, 64, 25, 64, 200, 0, 2);
+            case NESTED_CONTAINERS -> structure(random, 8, 8, 8, 4, 0, 12);
+            case MANY_COMPONENTS -> structure(random, 16, 16, 16, 2, 256, 1);
+        };
+    }
+
+    public static List<String> keywords(int count) {
+        List<String> keywords = new ArrayList<>(count);
+        keywords.add("minecraft:bedrock");
+        keywords.add("minecraft:command_block");
+        for (int i = keywords.size(); i < count; i++) {
+            keywords.add("examplemod:banned_item_" + i);
+        }
+        return keywords;
+    }
+
+    // blockEntityEvery: 每隔多少个方块放一个方块实体
+    // extraComponents: 每个方块实体额外携带的非白名单组件数
+    // nesting: 方块实体中物品的嵌套层数
+    private static CompoundTag structure(Random random, int sizeX, int sizeY, int sizeZ,
+                                         int blockEntityEvery, int extraComponents, int nesting) {
+        CompoundTag root = new CompoundTag();
+        root.putInt("DataVersion", 3955);
+        root.put("size", intList(sizeX, sizeY, sizeZ));
+
+        ListTag palette = new ListTag();
+        for (String name : PALETTE) {
+            CompoundTag state = new CompoundTag();
+            state.putString("Name", name);
+            palette.add(state);
+        }
+        root.put("palette", palette);
+
+        ListTag blocks = new ListTag();
+        int index = 0;
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    CompoundTag block = new CompoundTag();
+                    block.put("pos", intList(x, y, z));
+                    block.putInt("state", random.nextInt(PALETTE.length));
+                    if (index++ % blockEntityEvery == 0) {
+                        block.put("nbt", blockEntity(random, extraComponents, nesting));
+                    }
+                    blocks.add(block);
+                }
+            }
+        }
+        root.put("blocks", blocks);
+        root.put("entities", new ListTag());
+        return root;
+    }
+
+    private static CompoundTag blockEntity(Random random, int extraComponents, int nesting) {
+        CompoundTag nbt = new CompoundTag();
+        nbt.putString("id", "create:clipboard");
+
+        CompoundTag components = new CompoundTag();
+        ListTag pages = new ListTag();
+        for (int i = 0; i < 3; i++) {
+            pages.add(StringTag.valueOf("Page " + i + " of build notes " + random.nextInt(1000)));
+        }
+        components.put("create:clipboard_pages", pages);
+        components.putString("create:clipboard_type", "written");
+        for (int i = 0; i < extraComponents; i++) {
+            components.putString("examplemod:payload_" + i, "x".repeat(32));
+        }
+        nbt.put("components", components);
+
+        ListTag items = new ListTag();
+        items.add(item(random, nesting));
+        nbt.put("Items", items);
+        return nbt;
+    }
+
+    private static CompoundTag item(Random random, int nesting) {
+        CompoundTag item = new CompoundTag();
+        item.putString("id", nesting > 1 ? "minecraft:shulker_box" : "minecraft:oak_planks");
+        item.putInt("count", 1 + random.nextInt(64));
+
+        CompoundTag components = new CompoundTag();
+        components.putString("create:clipboard_type", "empty");
+        if (nesting > 1) {
+            ListTag container = new ListTag();
+            CompoundTag slot = new CompoundTag();
+            slot.putInt("slot", 0);
+            slot.put("item", item(random, nesting - 1));
+            container.add(slot);
+            // 嵌套容器放在白名单组件中，保证遍历会深入每一层
+            components.put("create:clipboard_pages", container);
+        }
+        item.put("components", components);
+        return item;
+    }
+
+    private static ListTag intList(int... values) {
+        ListTag list = new ListTag();
+        for (int value : values) {
+            list.add(IntTag.valueOf(value));
+        }
+        return list;
+    }
+}
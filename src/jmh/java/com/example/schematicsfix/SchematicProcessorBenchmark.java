@@ -0,0 +1,147 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// 运行: ./gradlew jmh
+// 不需要启动游戏，所有输入都由SchematicFixtures生成
+@State(Scope.Benchmark)
+public class SchematicProcessorBenchmark {
+    @Param({"SMALL_HOUSE", "LARGE_BUILD", "NESTED_CONTAINERS", "MANY_COMPONENTS"})
+    public SchematicFixtures.Shape shape;
+
+    @Param({"2", "300"})
+    public int keywordCount;
+
+    private ScanRules rules;
+    private CompoundTag root;
+    private CompoundTag components;
+    private byte[] compressed;
+    private byte[] uncompressed;
+    private Path tempDir;
+    private Path cleanFile;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 20);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rules = new ScanRules(true, SchematicFixtures.keywords(keywordCount), Config.ALLOWED_COMPONENTS.getDefault(), true,
+            Config.MAX_FILE_SIZE.getDefault() * 1024L, Config.MAX_DECOMPRESSED_SIZE.getDefault() * 1024L,
+            Config.MAX_NBT_DEPTH.getDefault(), Config.MAX_NBT_NODES.getDefault());
+        root = SchematicFixtures.create(shape);
+        components = root.getList("blocks", 10).getCompound(0).getCompound("nbt").getCompound("components");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtIo.writeCompressed(root, bytes);
+        compressed = bytes.toByteArray();
+
+        bytes.reset();
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            NbtIo.write(root, data);
+        }
+        uncompressed = bytes.toByteArray();
+
+        // 端到端测试使用清理后的文件，即绝大多数上传文件所走的路径
+        tempDir = Files.createTempDirectory("schematicsfix-jmh");
+        cleanFile = tempDir.resolve("player").resolve("bench.nbt");
+        Files.createDirectories(cleanFile.getParent());
+        CompoundTag cleaned = root.copy();
+        new NbtTraversal(rules, false).run(cleaned);
+        NbtIo.writeCompressed(cleaned, cleanFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // processNbtRecursively和cleanComponents会修改输入，每次调用前复制一份
+    @State(Scope.Thread)
+    public static class MutableInputs {
+        CompoundTag root;
+        CompoundTag components;
+
+        @Setup(Level.Invocation)
+        public void copy(SchematicProcessorBenchmark benchmark) {
+            root = benchmark.root.copy();
+            components = benchmark.components.copy();
+        }
+    }
+
+    @Benchmark
+    public boolean cleanTraversal(MutableInputs inputs) throws IOException {
+        NbtTraversal traversal = new NbtTraversal(rules, false);
+        traversal.run(inputs.root);
+        return traversal.isModified();
+    }
+
+    @Benchmark
+    public int cleanAndCheckTraversal(MutableInputs inputs) throws IOException {
+        return new NbtTraversal(rules, true).run(inputs.root);
+    }
+
+    @Benchmark
+    public boolean cleanComponents(MutableInputs inputs) {
+        return SchematicProcessor.cleanComponents(inputs.components, rules.allowlist(),
+            ComponentAllowlist.Context.BLOCK_ENTITY, null);
+    }
+
+    @Benchmark
+    public int keywordTraversal() throws IOException {
+        return new NbtTraversal(null, rules.keywordMatcher(), rules.maxDepth(), rules.maxNodes()).run(root);
+    }
+
+    @Benchmark
+    public StreamingNbtScanner.Verdict streamingScan() throws IOException {
+        StreamingNbtScanner scanner = new StreamingNbtScanner(rules);
+        return scanner.scan(new DataInputStream(new ByteArrayInputStream(uncompressed)));
+    }
+
+    // 在未压缩的字节上删除组件，与gzipWrite对比可以看出重写时压缩所占的比例
+    @Benchmark
+    public int streamingRewrite() throws IOException {
+        output.reset();
+        new StreamingNbtRewriter(rules).rewrite(new DataInputStream(new ByteArrayInputStream(uncompressed)),
+            new DataOutputStream(output));
+        return output.size();
+    }
+
+    @Benchmark
+    public CompoundTag gzipRead() throws IOException {
+        return NbtIo.readCompressed(new ByteArrayInputStream(compressed), NbtAccounter.unlimitedHeap());
+    }
+
+    @Benchmark
+    public int gzipWrite() throws IOException {
+        output.reset();
+        NbtIo.writeCompressed(root, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public boolean processSchematicFile() {
+        return SchematicProcessor.processSchematicFile(cleanFile, "player", rules, null);
+    }
+}
@@ -0,0 +1,348 @@
+package com.example.schematicsfix;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 异常文件的后台处理：隔离区索引、审计日志和管理员通知都在单独的线程中批量完成
+// 调用方在修改原文件之前调用backup，备份完成后才返回；其余工作不阻塞处理线程
+public class AnomalyPipeline {
+    // action: banned、rewritten或quarantined；sha256为原始内容的哈希，未读取内容时为null
+    public record Report(String playerName, Path file, String action, String reason, String keyword,
+                         List<String> removedKeys, String sha256) {}
+
+    private static final Logger LOGGER = Logger.getLogger(AnomalyPipeline.class.getName());
+    // 放在队列末尾通知后台线程停止；不能用中断，中断会关闭正在写入的审计日志和隔离区文件通道
+    private static final Report STOP = new Report(null, null, null, null, null, List.of(), null);
+    private static final int BATCH_SIZE = 256;
+    private static final int SAMPLE_FILES = 3;
+    private static final long PRUNE_INTERVAL_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final MinecraftServer server;
+    private final QuarantineStore quarantine;
+    private final Path auditFile;
+    private final long maxAuditBytes;
+    private final int auditFiles;
+    private final long summaryIntervalNanos;
+
+    private final BlockingQueue<Report> queue = new LinkedBlockingQueue<>();
+    // 玩家 -> 本周期内的异常文件，只由后台线程访问
+    private final Map<String, List<Report>> pendingNotices = new LinkedHashMap<>();
+    private BufferedWriter auditWriter;
+    private long auditBytes;
+    private long nextSummaryAt;
+    private long nextPruneAt;
+    private volatile boolean running;
+    private Thread thread;
+
+    public AnomalyPipeline(MinecraftServer server, QuarantineStore quarantine, Path auditFile,
+                           long maxAuditBytes, int auditFiles, int summaryIntervalSeconds) {
+        this.server = server;
+        this.quarantine = quarantine;
+        this.auditFile = auditFile;
+        this.maxAuditBytes = maxAuditBytes;
+        this.auditFiles = auditFiles;
+        this.summaryIntervalNanos = TimeUnit.SECONDS.toNanos(summaryIntervalSeconds);
+    }
+
+    public static AnomalyPipeline fromConfig(MinecraftServer server) {
+        return new AnomalyPipeline(server, QuarantineStore.fromConfig(), SchematicFixMod.AUDIT_LOG_FILE,
+            Config.AUDIT_LOG_MAX_SIZE.get() * 1024L, Config.AUDIT_LOG_FILES.get(),
+            Config.ANOMALY_SUMMARY_INTERVAL.get());
+    }
+
+    // 在开始处理文件之前加载隔离区，加载时会清理没有记录引用的内容
+    public void start() {
+        quarantine.load();
+        running = true;
+        nextSummaryAt = System.nanoTime() + summaryIntervalNanos;
+        nextPruneAt = System.nanoTime() + PRUNE_INTERVAL_NANOS;
+        thread = new Thread(this::writeLoop, "SchematicFix-Anomalies");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    // 停止前写完所有排队的审计记录
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            queue.add(STOP);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public QuarantineStore getQuarantine() {
+        return quarantine;
+    }
+
+    // 把原文件存入隔离区，必须在修改原文件之前调用；sha256为原始内容的哈希
+    // 相同内容已经存在时不再保存；优先创建硬链接（原文件随后通过原子替换修改，链接保留原始内容），
+    // 不支持时同步写入内存中的内容：备份失败时抛出异常，原文件保持不变
+    // size和modifiedTime是读取原始内容之前的文件属性，文件此后被替换时不创建硬链接
+    // 备份的内容在report记录之前不会被清理；备份后没有修改原文件、不再报告时必须调用cancelBackup
+    public void backup(Path file, byte[] original, String sha256, long size, long modifiedTime) throws IOException {
+        quarantine.pin(sha256);
+        try {
+            if (quarantine.linkBlob(file, sha256, size, modifiedTime)) return;
+
+            if (original != null) {
+                quarantine.writeBlob(sha256, original);
+            } else {
+                quarantine.copyBlob(file, sha256);
+            }
+        } catch (IOException e) {
+            quarantine.unpin(sha256);
+            throw e;
+        }
+    }
+
+    public void cancelBackup(String sha256) {
+        quarantine.unpin(sha256);
+    }
+
+    public void report(Report report) {
+        if (running) {
+            queue.add(report);
+        } else {
+            notifyNow(describe(report));
+            if (report.sha256() != null) {
+                quarantine.unpin(report.sha256());
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Report> batch = new ArrayList<>(BATCH_SIZE);
+        boolean stopping = false;
+        // 收到STOP后继续写完队列中剩余的记录，包括stop()之前刚刚入队的
+        while (!stopping || !queue.isEmpty()) {
+            try {
+                Report first = stopping ? queue.poll() : queue.poll(pollTimeoutNanos(), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    stopping |= batch.removeIf(report -> report == STOP);
+                    processBatch(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            if (stopping || System.nanoTime() - nextSummaryAt >= 0) {
+                flushNotices();
+                nextSummaryAt = System.nanoTime() + summaryIntervalNanos;
+            }
+            if (!stopping && System.nanoTime() - nextPruneAt >= 0) {
+                quarantine.prune(System.currentTimeMillis());
+                nextPruneAt = System.nanoTime() + PRUNE_INTERVAL_NANOS;
+            }
+        }
+        closeAuditWriter();
+    }
+
+    private long pollTimeoutNanos() {
+        if (pendingNotices.isEmpty()) return TimeUnit.SECONDS.toNanos(1);
+        return Math.max(1, nextSummaryAt - System.nanoTime());
+    }
+
+    private void processBatch(List<Report> batch) {
+        boolean wroteAudit = false;
+        for (Report report : batch) {
+            wroteAudit |= appendAudit(report);
+            if (report.sha256() != null) {
+                quarantine.record(report.playerName(), System.currentTimeMillis(), report.sha256(),
+                    report.action(), report.file().getFileName().toString(), detail(report));
+            }
+            if (summaryIntervalNanos == 0) {
+                notifyNow(describe(report));
+            } else {
+                pendingNotices.computeIfAbsent(report.playerName(), player -> new ArrayList<>()).add(report);
+            }
+        }
+        if (wroteAudit && auditWriter != null) {
+            try {
+                auditWriter.flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write audit log: " + e.getMessage());
+                closeAuditWriter();
+            }
+        }
+    }
+
+    private boolean appendAudit(Report report) {
+        String line = toJson(report) + "\n";
+        int length = line.getBytes(StandardCharsets.UTF_8).length;
+        try {
+            if (auditWriter == null || auditBytes + length > maxAuditBytes) {
+                rotateAuditLog(length);
+            }
+            auditWriter.write(line);
+            auditBytes += length;
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write audit log: " + e.getMessage());
+            closeAuditWriter();
+            return false;
+        }
+    }
+
+    // 写入下一条记录会超过上限时，依次重命名为 .1 .. .N，最旧的一个被删除
+    private void rotateAuditLog(int nextLength) throws IOException {
+        closeAuditWriter();
+        Files.createDirectories(auditFile.getParent());
+        long size = Files.exists(auditFile) ? Files.size(auditFile) : 0;
+        if (size > 0 && size + nextLength > maxAuditBytes) {
+            Files.deleteIfExists(rotated(auditFiles));
+            for (int i = auditFiles - 1; i >= 1; i--) {
+                Path source = rotated(i);
+                if (Files.exists(source)) {
+                    Files.move(source, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(auditFile, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+            size = 0;
+        }
+        auditWriter = Files.newBufferedWriter(auditFile, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        auditBytes = size;
+    }
+
+    private Path rotated(int index) {
+        return auditFile.resolveSibling(auditFile.getFileName() + "." + index);
+    }
+
+    private void closeAuditWriter() {
+        if (auditWriter != null) {
+            try {
+                auditWriter.close();
+            } catch (IOException ignored) {
+            }
+            auditWriter = null;
+        }
+    }
+
+    // 同一周期内的异常合并成一条消息，避免刷屏
+    private void flushNotices() {
+        if (pendingNotices.isEmpty()) return;
+
+        int total = 0;
+        for (List<Report> reports : pendingNotices.values()) {
+            total += reports.size();
+        }
+
+        String message;
+        if (total == 1) {
+            message = describe(pendingNotices.values().iterator().next().get(0));
+        } else {
+            StringBuilder builder = new StringBuilder(String.format(
+                "[Create Bugfix] %d anomalous schematics in the last %ds:", total,
+                TimeUnit.NANOSECONDS.toSeconds(summaryIntervalNanos)));
+            String separator = " ";
+            for (Map.Entry<String, List<Report>> entry : pendingNotices.entrySet()) {
+                List<Report> reports = entry.getValue();
+                builder.append(separator).append(entry.getKey()).append(" x").append(reports.size()).append(" (");
+                for (int i = 0; i < Math.min(SAMPLE_FILES, reports.size()); i++) {
+                    builder.append(i > 0 ? ", " : "").append(reports.get(i).file().getFileName());
+                }
+                builder.append(reports.size() > SAMPLE_FILES ? ", ...)" : ")");
+                separator = ", ";
+            }
+            message = builder.toString();
+        }
+        pendingNotices.clear();
+        notifyNow(message);
+    }
+
+    private void notifyNow(String message) {
+        if (server == null) {
+            LOGGER.log(Level.INFO, message);
+            return;
+        }
+        server.execute(SchematicMetrics.serverTask(() -> {
+            server.getPlayerList().getServer().sendSystemMessage(Component.literal(message));
+        }));
+    }
+
+    static String detail(Report report) {
+        return report.keyword() != null ? "banned keyword '" + report.keyword() + "'" : report.reason();
+    }
+
+    static String describe(Report report) {
+        String detail = detail(report);
+        return String.format("[Create Bugfix] Found anomalous schematic by player '%s': %s",
+            report.playerName(), report.file().getFileName()) + (detail != null ? " (" + detail + ")" : "");
+    }
+
+    private static String toJson(Report report) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"time\":\"").append(Instant.now()).append('"');
+        field(json, "player", report.playerName());
+        field(json, "file", report.file().getFileName().toString());
+        field(json, "action", report.action());
+        field(json, "sha256", report.sha256());
+        field(json, "reason", report.reason());
+        field(json, "keyword", report.keyword());
+        json.append(",\"removedKeys\":[");
+        List<String> removedKeys = report.removedKeys();
+        for (int i = 0; i < removedKeys.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append('"');
+            escape(json, removedKeys.get(i));
+            json.append('"');
+        }
+        return json.append("]}").toString();
+    }
+
+    static void field(StringBuilder json, String name, String value) {
+        json.append(",\"").append(name).append("\":");
+        if (value == null) {
+            json.append("null");
+        } else {
+            json.append('"');
+            escape(json, value);
+            json.append('"');
+        }
+    }
+
+    static void escape(StringBuilder json, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.schematicsfix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 组件白名单，配置加载时编译成不可变的开放寻址哈希表，查询时不分配对象
+// 规则格式：
+//   create:clipboard_pages            精确匹配
+//   create:*                          整个命名空间
+//   *                                 所有组件
+//   block_entity|create:*             只对方块实体自身的组件生效
+//   item|create:clipboard_type        只对物品（容器中的物品、掉落物等）生效
+public final class ComponentAllowlist {
+    public enum Context {
+        BLOCK_ENTITY,
+        ITEM;
+
+        final int bit = 1 << ordinal();
+    }
+
+    // 当前节点在结构文件中的位置，只有 blocks[i].nbt 下的components属于方块实体
+    public enum Position {
+        ROOT,
+        BLOCKS,
+        BLOCK,
+        BLOCK_ENTITY,
+        NESTED;
+
+        public Position child(CharSequence key) {
+            return switch (this) {
+                case ROOT -> contentEquals(key, "blocks") ? BLOCKS : NESTED;
+                case BLOCK -> contentEquals(key, "nbt") ? BLOCK_ENTITY : NESTED;
+                default -> NESTED;
+            };
+        }
+
+        public Position element() {
+            return this == BLOCKS ? BLOCK : NESTED;
+        }
+
+        public Context componentsContext() {
+            return this == BLOCK_ENTITY ? Context.BLOCK_ENTITY : Context.ITEM;
+        }
+    }
+
+    private static final String BLOCK_ENTITY_PREFIX = "block_entity|";
+    private static final String ITEM_PREFIX = "item|";
+    private static final int ALL_CONTEXTS = Context.BLOCK_ENTITY.bit | Context.ITEM.bit;
+
+    private final List<String> rules;
+    private final Table exact;
+    private final Table namespaces;
+    private final int allowAll;
+
+    private ComponentAllowlist(List<String> rules, Table exact, Table namespaces, int allowAll) {
+        this.rules = rules;
+        this.exact = exact;
+        this.namespaces = namespaces;
+        this.allowAll = allowAll;
+    }
+
+    public static boolean isValidRule(Object value) {
+        if (!(value instanceof String rule)) return false;
+        String pattern = stripContext(rule.trim());
+        if (pattern.isEmpty() || pattern.chars().anyMatch(Character::isWhitespace)) return false;
+        if (pattern.equals("*")) return true;
+        if (pattern.endsWith(":*")) {
+            String namespace = pattern.substring(0, pattern.length() - 2);
+            return !namespace.isEmpty() && namespace.indexOf(':') < 0 && namespace.indexOf('*') < 0;
+        }
+        return pattern.indexOf('*') < 0;
+    }
+
+    public static ComponentAllowlist compile(List<? extends String> configured) {
+        List<String> rules = new ArrayList<>();
+        List<String> exactKeys = new ArrayList<>();
+        List<Integer> exactMasks = new ArrayList<>();
+        List<String> namespaceKeys = new ArrayList<>();
+        List<Integer> namespaceMasks = new ArrayList<>();
+        int allowAll = 0;
+
+        for (String value : configured) {
+            if (!isValidRule(value)) continue;
+            String rule = value.trim();
+            rules.add(rule);
+
+            int mask = contextMask(rule);
+            String pattern = stripContext(rule);
+            if (pattern.equals("*")) {
+                allowAll |= mask;
+            } else if (pattern.endsWith(":*")) {
+                add(namespaceKeys, namespaceMasks, pattern.substring(0, pattern.length() - 2), mask);
+            } else {
+                add(exactKeys, exactMasks, pattern, mask);
+            }
+        }
+
+        return new ComponentAllowlist(List.copyOf(rules), new Table(exactKeys, exactMasks),
+            new Table(namespaceKeys, namespaceMasks), allowAll);
+    }
+
+    // 编译前的规则文本，用于计算缓存指纹
+    public List<String> rules() {
+        return rules;
+    }
+
+    public boolean isAllowed(CharSequence key, Context context) {
+        int bit = context.bit;
+        if ((allowAll & bit) != 0) return true;
+
+        if ((exact.lookup(key, 0, key.length()) & bit) != 0) return true;
+
+        // 命名空间规则只匹配冒号之前的部分，"!ns:id"形式的移除标记不会被命名空间规则放行
+        int colon = indexOf(key, ':');
+        return colon > 0 && (namespaces.lookup(key, 0, colon) & bit) != 0;
+    }
+
+    private static void add(List<String> keys, List<Integer> masks, String key, int mask) {
+        int existing = keys.indexOf(key);
+        if (existing >= 0) {
+            masks.set(existing, masks.get(existing) | mask);
+        } else {
+            keys.add(key);
+            masks.add(mask);
+        }
+    }
+
+    private static int contextMask(String rule) {
+        if (rule.startsWith(BLOCK_ENTITY_PREFIX)) return Context.BLOCK_ENTITY.bit;
+        if (rule.startsWith(ITEM_PREFIX)) return Context.ITEM.bit;
+        return ALL_CONTEXTS;
+    }
+
+    private static String stripContext(String rule) {
+        if (rule.startsWith(BLOCK_ENTITY_PREFIX)) return rule.substring(BLOCK_ENTITY_PREFIX.length());
+        if (rule.startsWith(ITEM_PREFIX)) return rule.substring(ITEM_PREFIX.length());
+        return rule;
+    }
+
+    private static int indexOf(CharSequence text, char c) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (text.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    static boolean contentEquals(CharSequence text, String expected) {
+        int length = expected.length();
+        if (text.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // 线性探测的哈希表，值为上下文位掩码，查询的键可以是任意CharSequence的一段
+    private static final class Table {
+        private final String[] keys;
+        private final int[] masks;
+        private final int mask;
+
+        Table(List<String> entries, List<Integer> entryMasks) {
+            int capacity = Integer.highestOneBit(Math.max(4, entries.size() * 2) - 1) << 1;
+            this.keys = new String[capacity];
+            this.masks = new int[capacity];
+            this.mask = capacity - 1;
+            for (int i = 0; i < entries.size(); i++) {
+                String key = entries.get(i);
+                int slot = hash(key, 0, key.length()) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                masks[slot] = entryMasks.get(i);
+            }
+        }
+
+        int lookup(CharSequence text, int start, int end) {
+            int slot = hash(text, start, end) & mask;
+            String key;
+            while ((key = keys[slot]) != null) {
+                if (regionEquals(key, text, start, end)) {
+                    return masks[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        private static int hash(CharSequence text, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + text.charAt(i);
+            }
+            return spread(h);
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean regionEquals(String key, CharSequence text, int start, int end) {
+            if (key.length() != end - start) return false;
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != text.charAt(start + i)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -10,6 +10,43 @@ public class Config {
 
     public static final ModConfigSpec.ConfigValue<List<? extends String>> BANNED_KEYWORDS;
     public static final ModConfigSpec.BooleanValue ENABLE_KEYWORD_CHECK;
+    public static final ModConfigSpec.ConfigValue<List<? extends String>> ALLOWED_COMPONENTS;
+
+    public static final ModConfigSpec.IntValue WORKER_THREADS;
+    public static final ModConfigSpec.IntValue WORKER_QUEUE_SIZE;
+    public static final ModConfigSpec.EnumValue<ProcessingPool.RejectionPolicy> REJECTION_POLICY;
+    public static final ModConfigSpec.BooleanValue USE_VIRTUAL_THREADS;
+    public static final ModConfigSpec.IntValue MAX_VIRTUAL_THREADS;
+    public static final ModConfigSpec.BooleanValue USE_STREAMING_SCANNER;
+    public static final ModConfigSpec.BooleanValue INTERCEPT_UPLOADS;
+    public static final ModConfigSpec.IntValue MAX_FILE_SIZE;
+    public static final ModConfigSpec.IntValue MAX_DECOMPRESSED_SIZE;
+    public static final ModConfigSpec.IntValue MAX_NBT_DEPTH;
+    public static final ModConfigSpec.IntValue MAX_NBT_NODES;
+    public static final ModConfigSpec.BooleanValue REPORT_ONLY;
+    public static final ModConfigSpec.IntValue REWRITE_COMPRESSION_LEVEL;
+    public static final ModConfigSpec.BooleanValue ENABLE_VERDICT_CACHE;
+    public static final ModConfigSpec.IntValue VERDICT_CACHE_SIZE;
+    public static final ModConfigSpec.IntValue SCAN_PARALLELISM;
+    public static final ModConfigSpec.IntValue SCAN_PROGRESS_INTERVAL;
+    public static final ModConfigSpec.IntValue FILE_STABILIZATION_DELAY;
+    public static final ModConfigSpec.IntValue MAX_IN_FLIGHT;
+    public static final ModConfigSpec.IntValue MAX_RETRY_ATTEMPTS;
+    public static final ModConfigSpec.IntValue RETRY_BASE_DELAY;
+    public static final ModConfigSpec.IntValue RETRY_MAX_DELAY;
+    public static final ModConfigSpec.IntValue PLAYER_UPLOAD_RATE;
+    public static final ModConfigSpec.IntValue PLAYER_UPLOAD_BURST;
+    public static final ModConfigSpec.EnumValue<FairScheduler.OverLimitAction> OVER_LIMIT_ACTION;
+    public static final ModConfigSpec.IntValue RECONCILE_INTERVAL;
+    public static final ModConfigSpec.BooleanValue STARTUP_CATCH_UP;
+    public static final ModConfigSpec.IntValue MAX_WATCHED_DIRECTORIES;
+    public static final ModConfigSpec.IntValue POLL_INTERVAL;
+    public static final ModConfigSpec.IntValue METRICS_EXPORT_INTERVAL;
+    public static final ModConfigSpec.IntValue AUDIT_LOG_MAX_SIZE;
+    public static final ModConfigSpec.IntValue AUDIT_LOG_FILES;
+    public static final ModConfigSpec.IntValue ANOMALY_SUMMARY_INTERVAL;
+    public static final ModConfigSpec.IntValue QUARANTINE_MAX_SIZE;
+    public static final ModConfigSpec.IntValue QUARANTINE_RETENTION;
 
     static {
         BUILDER.push("Schematic Patch Config");
@@ -24,6 +61,169 @@ public class Config {
                 .comment("Enable keyword checking")
                 .define("enableKeywordCheck", true);
         
+        ALLOWED_COMPONENTS = BUILDER
+                .comment("Components kept in schematics, all others are removed.",
+                         "Entries are exact keys (create:clipboard_pages), whole namespaces (create:*) or * for everything.",
+                         "Prefix an entry with block_entity| or item| to limit it to block entity or item stack components.")
+                .defineList("allowedComponents",
+                            List.of("create:clipboard_pages", "create:clipboard_type"),
+                            ComponentAllowlist::isValidRule);
+        
+        BUILDER.pop();
+
+        BUILDER.push("Processing");
+
+        WORKER_THREADS = BUILDER
+                .comment("Number of worker threads used to scan schematic files off the server thread")
+                .defineInRange("workerThreads", 2, 1, 32);
+
+        WORKER_QUEUE_SIZE = BUILDER
+                .comment("Maximum number of schematic files waiting for a worker thread")
+                .defineInRange("workerQueueSize", 1024, 16, 65536);
+
+        REJECTION_POLICY = BUILDER
+                .comment("What to do when the worker queue is full: CALLER_RUNS, DISCARD, DISCARD_OLDEST or ABORT.",
+                         "CALLER_RUNS never falls back to the server thread.")
+                .defineEnum("rejectionPolicy", ProcessingPool.RejectionPolicy.CALLER_RUNS);
+
+        USE_VIRTUAL_THREADS = BUILDER
+                .comment("Process each file and each /schematic-all file on its own virtual thread instead of a fixed worker pool,",
+                         "waiting for retries and file locks then costs almost nothing")
+                .define("useVirtualThreads", false);
+
+        MAX_VIRTUAL_THREADS = BUILDER
+                .comment("Files processed at the same time when useVirtualThreads is enabled. Parsing still uses the shared carrier threads,",
+                         "so a very high value can compete with the server thread for CPU")
+                .defineInRange("maxVirtualThreads", 64, 1, 10000);
+
+        USE_STREAMING_SCANNER = BUILDER
+                .comment("Check schematics in a single streaming pass and only build the full NBT tree when a rewrite is needed")
+                .define("useStreamingScanner", true);
+
+        INTERCEPT_UPLOADS = BUILDER
+                .comment("Check schematics as soon as Create finishes receiving them and only hand the schematic item out once the check is done.",
+                         "The check runs on the worker threads from the received data; an upload that cannot be checked is not handed out and Create's idle timeout removes it.",
+                         "Needs a Create version whose upload handler matches; the file watcher stays active as a fallback")
+                .define("interceptUploads", false);
+
+        MAX_FILE_SIZE = BUILDER
+                .comment("Largest compressed schematic in KiB that will be read, larger files are treated as anomalies")
+                .defineInRange("maxFileSize", 8192, 16, 1048576);
+
+        MAX_DECOMPRESSED_SIZE = BUILDER
+                .comment("Largest uncompressed NBT size in KiB, checked against the gzip trailer before inflating and enforced while inflating")
+                .defineInRange("maxDecompressedSize", 65536, 64, 2097151);
+
+        MAX_NBT_DEPTH = BUILDER
+                .comment("Deepest allowed nesting of compounds and lists, deeper schematics are treated as anomalies")
+                .defineInRange("maxNbtDepth", 512, 16, 512);
+
+        MAX_NBT_NODES = BUILDER
+                .comment("Largest number of tags a schematic may contain, larger schematics are treated as anomalies")
+                .defineInRange("maxNbtNodes", 5000000, 1000, 100000000);
+
+        REPORT_ONLY = BUILDER
+                .comment("Only record what would be removed, banned or quarantined, with NBT paths, without changing, moving or backing up any file.",
+                         "See /schematic-impact. After turning this off, run /schematic-all to apply the rules to the reported files")
+                .define("reportOnly", false);
+
+        REWRITE_COMPRESSION_LEVEL = BUILDER
+                .comment("Deflate level (1-9) used when writing a cleaned schematic. Compression is most of the cost of a rewrite:",
+                         "1 is several times faster than Minecraft's default of 6 and makes files slightly larger")
+                .defineInRange("rewriteCompressionLevel", 1, 1, 9);
+
+        ENABLE_VERDICT_CACHE = BUILDER
+                .comment("Remember the verdict for each schematic so unchanged files are never parsed again")
+                .define("enableVerdictCache", true);
+
+        VERDICT_CACHE_SIZE = BUILDER
+                .comment("Maximum number of files kept in the verdict cache, least recently used entries are evicted first")
+                .defineInRange("verdictCacheSize", 100000, 1000, 10000000);
+
+        SCAN_PARALLELISM = BUILDER
+                .comment("Number of threads used by /schematic-all, 0 means one less than the number of CPU cores.",
+                         "These threads are separate from workerThreads (or maxVirtualThreads), so during a scan both limits add up")
+                .defineInRange("scanParallelism", 0, 0, 64);
+
+        SCAN_PROGRESS_INTERVAL = BUILDER
+                .comment("Seconds between progress reports while /schematic-all is running")
+                .defineInRange("scanProgressInterval", 5, 1, 300);
+
+        FILE_STABILIZATION_DELAY = BUILDER
+                .comment("Milliseconds a file must stay unchanged (no events, same size and mtime) before it is processed")
+                .defineInRange("fileStabilizationDelay", 1000, 100, 60000);
+
+        MAX_IN_FLIGHT = BUILDER
+                .comment("Maximum number of watched files being processed at the same time")
+                .defineInRange("maxInFlight", 64, 1, 4096);
+
+        MAX_RETRY_ATTEMPTS = BUILDER
+                .comment("Attempts for a file that fails with a transient error before it is added to the failed list (/schematic-failed)")
+                .defineInRange("maxRetryAttempts", 5, 1, 20);
+
+        RETRY_BASE_DELAY = BUILDER
+                .comment("Milliseconds before the first retry, doubled for every further attempt with random jitter")
+                .defineInRange("retryBaseDelay", 250, 10, 60000);
+
+        RETRY_MAX_DELAY = BUILDER
+                .comment("Longest delay in milliseconds between two retries of the same file")
+                .defineInRange("retryMaxDelay", 30000, 100, 3600000);
+
+        PLAYER_UPLOAD_RATE = BUILDER
+                .comment("Uploaded files per minute each player may have checked, players take turns so one player cannot starve the others")
+                .defineInRange("playerUploadRate", 30, 1, 100000);
+
+        PLAYER_UPLOAD_BURST = BUILDER
+                .comment("Files a player may upload at once before playerUploadRate applies")
+                .defineInRange("playerUploadBurst", 10, 1, 10000);
+
+        OVER_LIMIT_ACTION = BUILDER
+                .comment("What to do with uploads over the per-player limit: DEFER keeps them queued until the limit allows,",
+                         "DROP skips them until the next reconciliation sweep or /schematic-all, QUARANTINE moves them to the anomaly folder unchecked")
+                .defineEnum("overLimitAction", FairScheduler.OverLimitAction.DEFER);
+
+        RECONCILE_INTERVAL = BUILDER
+                .comment("Minutes between low-priority sweeps that catch files whose watch events were lost, 0 disables the sweep")
+                .defineInRange("reconcileInterval", 15, 0, 1440);
+
+        STARTUP_CATCH_UP = BUILDER
+                .comment("Save an index of uploaded schematics (path, size, modification time) when the server stops,",
+                         "and on the next start check only the files that were added or changed while it was down, in a low-priority background task")
+                .define("startupCatchUp", true);
+
+        MAX_WATCHED_DIRECTORIES = BUILDER
+                .comment("Maximum number of upload directories watched for file events, 0 means as many as the system allows.",
+                         "Directories beyond this limit or beyond the system watch limit (fs.inotify.max_user_watches on Linux) are polled instead")
+                .defineInRange("maxWatchedDirectories", 0, 0, 1000000);
+
+        POLL_INTERVAL = BUILDER
+                .comment("Seconds between checks of directories that could not be watched, 0 leaves them to the reconciliation sweep")
+                .defineInRange("pollInterval", 10, 0, 3600);
+
+        METRICS_EXPORT_INTERVAL = BUILDER
+                .comment("Seconds between writes of schematicsfix-metrics.prom (Prometheus text format), 0 disables the file")
+                .defineInRange("metricsExportInterval", 60, 0, 3600);
+
+        AUDIT_LOG_MAX_SIZE = BUILDER
+                .comment("Size in KiB at which schematicsfix-audit.log is rotated")
+                .defineInRange("auditLogMaxSize", 10240, 16, 1048576);
+
+        AUDIT_LOG_FILES = BUILDER
+                .comment("Number of rotated audit logs kept next to the current one")
+                .defineInRange("auditLogFiles", 5, 1, 100);
+
+        ANOMALY_SUMMARY_INTERVAL = BUILDER
+                .comment("Seconds over which anomaly notifications are combined into one message, 0 sends one message per file")
+                .defineInRange("anomalySummaryInterval", 10, 0, 3600);
+
+        QUARANTINE_MAX_SIZE = BUILDER
+                .comment("Size in MiB the quarantine store may use, the longest unseen files are removed first when it is exceeded")
+                .defineInRange("quarantineMaxSize", 1024, 1, 1048576);
+
+        QUARANTINE_RETENTION = BUILDER
+                .comment("Days quarantine records are kept, 0 keeps them until quarantineMaxSize is reached")
+                .defineInRange("quarantineRetention", 90, 0, 3650);
+
         BUILDER.pop();
         SPEC = BUILDER.build();
     }
@@ -0,0 +1,140 @@
+package com.example.schematicsfix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 重试后仍无法处理的文件，持久化保存，下一次扫描时无论修改时间都会重新检查，管理员可通过/schematic-failed查看
+// 文件格式：每行 相对路径 玩家 失败类型 尝试次数 时间 错误信息，以制表符分隔
+public class DeadLetterQueue {
+    public record Entry(Path file, String playerName, RetryScheduler.Failure failure, int attempts, long time,
+                        String message) {}
+
+    private static final Logger LOGGER = Logger.getLogger(DeadLetterQueue.class.getName());
+    // 大量损坏文件时只保留最近的记录
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Path baseDir;
+    private final Path storeFile;
+    // 以下字段都由this保护，按加入顺序排列
+    private final Map<Path, Entry> entries = new LinkedHashMap<>();
+    private boolean dirty;
+    // 处理成功时会检查是否需要移除，队列为空时无需加锁
+    private volatile int size;
+
+    public DeadLetterQueue(Path baseDir, Path storeFile) {
+        this.baseDir = baseDir;
+        this.storeFile = storeFile;
+    }
+
+    public synchronized void load() {
+        entries.clear();
+        if (Files.exists(storeFile)) {
+            try {
+                for (String line : Files.readAllLines(storeFile, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split("\t", 6);
+                    if (fields.length < 6) continue;
+                    try {
+                        Path file = baseDir.resolve(fields[0]);
+                        entries.put(file, new Entry(file, fields[1], RetryScheduler.Failure.valueOf(fields[2]),
+                            Integer.parseInt(fields[3]), Long.parseLong(fields[4]), fields[5]));
+                    } catch (IllegalArgumentException e) {
+                        // 跳过无法解析的行
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load failed schematic list: " + e.getMessage());
+            }
+        }
+        size = entries.size();
+        dirty = false;
+    }
+
+    public synchronized void save() {
+        if (!dirty) return;
+
+        Path tempFile = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(storeFile.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Entry entry : entries.values()) {
+                    writer.write(baseDir.relativize(entry.file()).toString().replace('\\', '/') + "\t"
+                        + entry.playerName() + "\t" + entry.failure() + "\t" + entry.attempts() + "\t"
+                        + entry.time() + "\t" + entry.message() + "\n");
+                }
+            }
+            Files.move(tempFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save failed schematic list: " + e.getMessage());
+        }
+    }
+
+    public synchronized void add(Path file, String playerName, RetryScheduler.Failure failure, int attempts,
+                                 String message) {
+        String cleaned = message == null ? "" : message.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        entries.remove(file);
+        entries.put(file, new Entry(file, playerName, failure, attempts, System.currentTimeMillis(), cleaned));
+        if (entries.size() > MAX_ENTRIES) {
+            Iterator<Path> oldest = entries.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        size = entries.size();
+        dirty = true;
+    }
+
+    public void remove(Path file) {
+        if (size == 0) return;
+        synchronized (this) {
+            if (entries.remove(file) != null) {
+                size = entries.size();
+                dirty = true;
+            }
+        }
+    }
+
+    public boolean contains(Path file) {
+        if (size == 0) return false;
+        synchronized (this) {
+            return entries.containsKey(file);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 最新的在前
+    public synchronized List<Entry> entries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    public synchronized void clear() {
+        if (entries.isEmpty()) return;
+        entries.clear();
+        size = 0;
+        dirty = true;
+    }
+
+    // 删除已经不存在的文件，扫描开始前调用
+    public synchronized void removeMissing() {
+        if (entries.keySet().removeIf(file -> !Files.exists(file))) {
+            size = entries.size();
+            dirty = true;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.schematicsfix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// 轻量的 (路径, 大小, 修改时间) 内存索引，用于在丢失事件后找出变化的文件
+// 停服时保存到磁盘，下次启动时与目录对比，只处理停服期间新增或变化的文件
+public class DirectoryIndex {
+    // pending表示已交给处理但还没有结果，这样的条目不会被保存，下次启动时会重新处理
+    private record FileState(long size, long modifiedTime, boolean pending) {
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && modifiedTime == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    private static final int MAGIC = 0x53464458; // "SFDX"
+    // 版本1的每个文件多一个从未使用的结论字节，读取时跳过
+    private static final int VERSION = 2;
+    private static final Logger LOGGER = Logger.getLogger(DirectoryIndex.class.getName());
+
+    // 目录 -> (文件 -> 状态)，按目录分组便于只重扫受影响的目录
+    private final Map<Path, Map<Path, FileState>> directories = new ConcurrentHashMap<>();
+
+    public int size() {
+        int size = 0;
+        for (Map<Path, FileState> files : directories.values()) {
+            size += files.size();
+        }
+        return size;
+    }
+
+    // 记录处理后文件的状态
+    public void update(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            directories.computeIfAbsent(file.getParent(), dir -> new ConcurrentHashMap<>())
+                .put(file, new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), false));
+        } catch (IOException e) {
+            remove(file);
+        }
+    }
+
+    // 记录文件当前状态，返回状态是否与索引中的不同
+    private boolean update(Path file, BasicFileAttributes attributes, boolean pending) {
+        Map<Path, FileState> files = directories.computeIfAbsent(file.getParent(), dir -> new ConcurrentHashMap<>());
+        FileState previous = files.get(file);
+        if (previous != null && previous.matches(attributes)) {
+            return false;
+        }
+        files.put(file, new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), pending));
+        return true;
+    }
+
+    public void remove(Path file) {
+        Map<Path, FileState> files = directories.get(file.getParent());
+        if (files != null) {
+            files.remove(file);
+        }
+    }
+
+    public void removeDirectory(Path dir) {
+        directories.keySet().removeIf(path -> path.startsWith(dir));
+    }
+
+    // 删除不在给定集合中的目录，用于清理停服期间被删除的目录
+    public void retainDirectories(Set<Path> dirs) {
+        directories.keySet().retainAll(dirs);
+    }
+
+    // 重新列出目录中的结构文件，返回新增或变化的文件；已删除的文件从索引中移除
+    // pending为true表示调用方会处理返回的文件，为false时只记录现状
+    public List<Path> reconcile(Path dir, boolean pending) throws IOException {
+        List<Path> changed = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.nbt")) {
+            for (Path file : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (!attributes.isRegularFile()) continue;
+
+                seen.add(file);
+                if (update(file, attributes, pending)) {
+                    changed.add(file);
+                }
+            }
+        }
+
+        Map<Path, FileState> files = directories.get(dir);
+        if (files != null) {
+            files.keySet().retainAll(seen);
+        }
+        return changed;
+    }
+
+    // 按目录分组写入，文件名相对于所在目录，目录相对于baseDir
+    public void save(Path baseDir, Path indexFile) {
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                List<Map.Entry<Path, Map<Path, FileState>>> snapshot = new ArrayList<>(directories.entrySet());
+                output.writeInt(snapshot.size());
+                for (Map.Entry<Path, Map<Path, FileState>> dir : snapshot) {
+                    List<Map.Entry<Path, FileState>> files = new ArrayList<>();
+                    for (Map.Entry<Path, FileState> file : dir.getValue().entrySet()) {
+                        if (!file.getValue().pending()) {
+                            files.add(file);
+                        }
+                    }
+                    output.writeUTF(baseDir.relativize(dir.getKey()).toString().replace('\\', '/'));
+                    output.writeInt(files.size());
+                    for (Map.Entry<Path, FileState> file : files) {
+                        FileState state = file.getValue();
+                        output.writeUTF(file.getKey().getFileName().toString());
+                        output.writeLong(state.size());
+                        output.writeLong(state.modifiedTime());
+                    }
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save directory index: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // 返回是否成功读取了上次保存的索引；文件不存在或已损坏时索引保持为空
+    public boolean load(Path baseDir, Path indexFile) {
+        if (!Files.exists(indexFile)) return false;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(indexFile))))) {
+            int version = input.readInt() == MAGIC ? input.readInt() : -1;
+            if (version != 1 && version != VERSION) {
+                LOGGER.log(Level.WARNING, "Ignoring directory index with unknown format");
+                return false;
+            }
+
+            int dirCount = input.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                Path dir = baseDir.resolve(input.readUTF());
+                int fileCount = input.readInt();
+                Map<Path, FileState> files = new ConcurrentHashMap<>(Math.max(16, fileCount * 4 / 3 + 1));
+                for (int j = 0; j < fileCount; j++) {
+                    Path file = dir.resolve(input.readUTF());
+                    long size = input.readLong();
+                    long modifiedTime = input.readLong();
+                    if (version == 1) {
+                        input.readUnsignedByte();
+                    }
+                    files.put(file, new FileState(size, modifiedTime, false));
+                }
+                directories.put(dir, files);
+            }
+            return true;
+        } catch (IOException | InvalidPathException e) {
+            LOGGER.log(Level.WARNING, "Failed to load directory index: " + e.getMessage());
+            directories.clear();
+            return false;
+        }
+    }
+}
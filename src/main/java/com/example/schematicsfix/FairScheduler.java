@@ -0,0 +1,262 @@
+package com.example.schematicsfix;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 按玩家分队列的公平调度：各玩家轮流提交到工作线程池，每个玩家有独立的令牌桶限速
+// 单个玩家大量上传时只会拖慢自己的队列，不影响其他玩家的检查延迟
+public class FairScheduler {
+    public enum OverLimitAction {
+        // 超出速率的文件留在该玩家的队列中，等令牌恢复后再处理
+        DEFER,
+        // 直接忽略超出速率的文件，之后的定期对账或/schematic-all会再次检查
+        DROP,
+        // 不检查，直接移入异常目录
+        QUARANTINE
+    }
+
+    public interface Handler {
+        // 在工作线程中处理文件
+        void process(Path file, String playerName, long queuedAtNanos);
+
+        // 在提交文件的线程中调用，仅用于QUARANTINE
+        void quarantine(Path file, String playerName);
+
+        // 文件没有处理就被丢弃：DROP超出速率，或工作线程池拒绝、挤出了任务
+        // 调用方需要让之后的对账重新发现这个文件
+        void dropped(Path file);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(FairScheduler.class.getName());
+
+    private final ProcessingPool processingPool;
+    private final Handler handler;
+    private final int maxInFlight;
+    private final double tokensPerNano;
+    private final double burst;
+    private final OverLimitAction action;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, PlayerQueue> players = new HashMap<>();
+    // 有待处理文件的玩家，按轮询顺序排列
+    private final ArrayDeque<PlayerQueue> ready = new ArrayDeque<>();
+    private int queued;
+    private int inFlight;
+    private volatile boolean running;
+    private Thread thread;
+
+    public FairScheduler(ProcessingPool processingPool, Handler handler, int maxInFlight,
+                         int filesPerMinute, int burst, OverLimitAction action) {
+        this.processingPool = processingPool;
+        this.handler = handler;
+        this.maxInFlight = maxInFlight;
+        this.tokensPerNano = filesPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.burst = burst;
+        this.action = action;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::dispatchLoop, "SchematicFix-Scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        lock.lock();
+        try {
+            players.clear();
+            ready.clear();
+            queued = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void submit(Path file, String playerName) {
+        boolean overLimit = false;
+        lock.lock();
+        try {
+            if (!running) return;
+
+            PlayerQueue queue = players.computeIfAbsent(playerName, name -> new PlayerQueue(name, burst));
+            // DEFER在出队时消耗令牌，其他动作在入队时就判断是否超限
+            if (action != OverLimitAction.DEFER && !queue.tryAcquire(System.nanoTime())) {
+                overLimit = true;
+            } else if (queue.files.putIfAbsent(file, System.nanoTime()) == null) {
+                queued++;
+                if (!queue.inRing) {
+                    queue.inRing = true;
+                    ready.addLast(queue);
+                }
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (overLimit) {
+            SchematicMetrics.FILES_RATE_LIMITED.increment();
+            if (action == OverLimitAction.QUARANTINE) {
+                handler.quarantine(file, playerName);
+            } else {
+                LOGGER.log(Level.FINE, "Player " + playerName + " exceeded the upload limit, skipped " + file.getFileName());
+                handler.dropped(file);
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            Job job;
+            try {
+                job = takeNext();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            boolean accepted;
+            try {
+                accepted = processingPool.submit(() -> {
+                    try {
+                        handler.process(job.file(), job.playerName(), job.queuedAt());
+                    } finally {
+                        release();
+                    }
+                }, () -> {
+                    release();
+                    handler.dropped(job.file());
+                });
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to dispatch schematic " + job.file().getFileName() + ": " + e.getMessage());
+                accepted = false;
+            }
+            if (!accepted) {
+                release();
+                handler.dropped(job.file());
+            }
+        }
+    }
+
+    // 按轮询顺序取出下一个可以处理的文件，没有空闲名额或所有玩家都在等待令牌时阻塞
+    private Job takeNext() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (!running) throw new InterruptedException();
+                if (inFlight >= maxInFlight || ready.isEmpty()) {
+                    changed.await();
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                long minWait = Long.MAX_VALUE;
+                for (int i = 0, n = ready.size(); i < n; i++) {
+                    PlayerQueue queue = ready.pollFirst();
+                    if (action != OverLimitAction.DEFER || queue.tryAcquire(now)) {
+                        Map.Entry<Path, Long> entry = queue.poll();
+                        queued--;
+                        if (queue.files.isEmpty()) {
+                            queue.inRing = false;
+                        } else {
+                            ready.addLast(queue);
+                        }
+                        inFlight++;
+                        return new Job(entry.getKey(), queue.playerName, entry.getValue());
+                    }
+                    minWait = Math.min(minWait, queue.nanosUntilToken(now));
+                    ready.addLast(queue);
+                }
+                changed.awaitNanos(Math.max(minWait, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Job(Path file, String playerName, long queuedAt) {}
+
+    private final class PlayerQueue {
+        final String playerName;
+        // 文件 -> 入队时间，同一文件在队列中只保留一份
+        final LinkedHashMap<Path, Long> files = new LinkedHashMap<>();
+        boolean inRing;
+        double tokens;
+        long refilledAt;
+
+        PlayerQueue(String playerName, double tokens) {
+            this.playerName = playerName;
+            this.tokens = tokens;
+            this.refilledAt = System.nanoTime();
+        }
+
+        Map.Entry<Path, Long> poll() {
+            Iterator<Map.Entry<Path, Long>> iterator = files.entrySet().iterator();
+            Map.Entry<Path, Long> next = iterator.next();
+            Map.Entry<Path, Long> entry = Map.entry(next.getKey(), next.getValue());
+            iterator.remove();
+            return entry;
+        }
+
+        boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        long nanosUntilToken(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.schematicsfix;
+
+import java.io.IOException;
+
+// 文件正被其他进程写入或锁定，稍后重试
+public class FileBusyException extends IOException {
+    public FileBusyException(String message) {
+        super(message);
+    }
+}
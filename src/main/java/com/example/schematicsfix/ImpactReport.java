@@ -0,0 +1,218 @@
+package com.example.schematicsfix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 只报告模式下收集的影响：每个文件会被删除的组件及其NBT路径、命中的关键词和路径，不修改任何文件
+// 可通过/schematic-impact查看按玩家和按组件的汇总，停服或执行save时写入明细(JSON行)和汇总表(制表符分隔)
+public class ImpactReport {
+    public record PlayerSummary(String playerName, int rewritten, int banned, int removals) {}
+
+    public record KeySummary(String key, int files, int occurrences) {}
+
+    // 不保留清理后的NBT，内存中只有路径和组件名；action是会对文件执行的处理
+    private record FileImpact(String playerName, VerdictCache.Verdict verdict, String action, String reason,
+                              String keyword, String keywordPath, List<NbtTraversal.Removal> removals, long time) {}
+
+    private static final Logger LOGGER = Logger.getLogger(ImpactReport.class.getName());
+
+    private final Path baseDir;
+    private final Path detailFile;
+    private final Path summaryFile;
+    // 相对路径 -> 最近一次检查的结果，按路径排序；由this保护
+    private final Map<String, FileImpact> files = new TreeMap<>();
+    private boolean dirty;
+
+    public ImpactReport(Path baseDir, Path detailFile, Path summaryFile) {
+        this.baseDir = baseDir;
+        this.detailFile = detailFile;
+        this.summaryFile = summaryFile;
+    }
+
+    public Path getDetailFile() {
+        return detailFile;
+    }
+
+    public Path getSummaryFile() {
+        return summaryFile;
+    }
+
+    void record(Path file, String playerName, SchematicProcessor.Inspection inspection) {
+        put(file, new FileImpact(playerName, inspection.verdict(),
+            inspection.verdict() == VerdictCache.Verdict.BANNED ? "banned" : "rewritten", inspection.reason(),
+            inspection.matchedKeyword(), inspection.keywordPath(), inspection.removals(), System.currentTimeMillis()));
+    }
+
+    // 超出上传速率、未经检查就会被移入隔离区的文件，汇总中与禁止的文件计在一起
+    public void recordQuarantine(Path file, String playerName, String reason) {
+        put(file, new FileImpact(playerName, VerdictCache.Verdict.BANNED, "quarantined", reason, null, null,
+            List.of(), System.currentTimeMillis()));
+    }
+
+    private void put(Path file, FileImpact impact) {
+        String key = keyOf(file);
+        synchronized (this) {
+            files.put(key, impact);
+            dirty = true;
+        }
+    }
+
+    // 文件重新检查后已经干净，或者已被删除
+    public void remove(Path file) {
+        String key = keyOf(file);
+        synchronized (this) {
+            if (files.remove(key) != null) {
+                dirty = true;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    public synchronized void clear() {
+        if (files.isEmpty()) return;
+        files.clear();
+        dirty = true;
+    }
+
+    // 按受影响的文件数从多到少排列
+    public synchronized List<PlayerSummary> byPlayer() {
+        Map<String, int[]> counts = new HashMap<>();
+        for (FileImpact impact : files.values()) {
+            int[] count = counts.computeIfAbsent(impact.playerName(), player -> new int[3]);
+            if (impact.verdict() == VerdictCache.Verdict.BANNED) {
+                count[1]++;
+            } else {
+                count[0]++;
+            }
+            count[2] += impact.removals().size();
+        }
+
+        List<PlayerSummary> summaries = new ArrayList<>(counts.size());
+        counts.forEach((player, count) -> summaries.add(new PlayerSummary(player, count[0], count[1], count[2])));
+        summaries.sort(Comparator.comparingInt((PlayerSummary summary) -> summary.rewritten() + summary.banned())
+            .reversed().thenComparing(PlayerSummary::playerName));
+        return summaries;
+    }
+
+    // 按包含该组件的文件数从多到少排列
+    public synchronized List<KeySummary> byKey() {
+        Map<String, int[]> counts = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (FileImpact impact : files.values()) {
+            seen.clear();
+            for (NbtTraversal.Removal removal : impact.removals()) {
+                int[] count = counts.computeIfAbsent(removal.key(), key -> new int[2]);
+                if (seen.add(removal.key())) {
+                    count[0]++;
+                }
+                count[1]++;
+            }
+        }
+
+        List<KeySummary> summaries = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> summaries.add(new KeySummary(key, count[0], count[1])));
+        summaries.sort(Comparator.comparingInt(KeySummary::files).reversed().thenComparing(KeySummary::key));
+        return summaries;
+    }
+
+    // 两个文件都先写入临时文件再原子替换；没有变化时不写
+    public void save() {
+        List<String> details = new ArrayList<>();
+        List<PlayerSummary> players;
+        List<KeySummary> keys;
+        synchronized (this) {
+            if (!dirty) return;
+            StringBuilder json = new StringBuilder(256);
+            for (Map.Entry<String, FileImpact> entry : files.entrySet()) {
+                json.setLength(0);
+                details.add(toJson(json, entry.getKey(), entry.getValue()));
+            }
+            players = byPlayer();
+            keys = byKey();
+            dirty = false;
+        }
+
+        try {
+            write(detailFile, details);
+
+            List<String> summary = new ArrayList<>(players.size() + keys.size() + 3);
+            summary.add("player\tfiles_rewritten\tfiles_banned\tcomponents_removed");
+            for (PlayerSummary player : players) {
+                summary.add(player.playerName() + "\t" + player.rewritten() + "\t" + player.banned() + "\t" + player.removals());
+            }
+            summary.add("");
+            summary.add("component\tfiles\toccurrences");
+            for (KeySummary key : keys) {
+                summary.add(key.key() + "\t" + key.files() + "\t" + key.occurrences());
+            }
+            write(summaryFile, summary);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save impact report: " + e.getMessage());
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    private static void write(Path file, List<String> lines) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String toJson(StringBuilder json, String file, FileImpact impact) {
+        json.append("{\"time\":\"").append(Instant.ofEpochMilli(impact.time())).append('"');
+        AnomalyPipeline.field(json, "player", impact.playerName());
+        AnomalyPipeline.field(json, "file", file);
+        AnomalyPipeline.field(json, "action", impact.action());
+        AnomalyPipeline.field(json, "reason", impact.reason());
+        AnomalyPipeline.field(json, "keyword", impact.keyword());
+        AnomalyPipeline.field(json, "keywordPath", impact.keywordPath());
+        appendRemovals(json, impact.removals());
+        return json.append('}').toString();
+    }
+
+    static void appendRemovals(StringBuilder json, List<NbtTraversal.Removal> removals) {
+        json.append(",\"removed\":[");
+        for (int i = 0; i < removals.size(); i++) {
+            NbtTraversal.Removal removal = removals.get(i);
+            json.append(i > 0 ? ",{\"path\":\"" : "{\"path\":\"");
+            AnomalyPipeline.escape(json, removal.path());
+            json.append("\",\"key\":\"");
+            AnomalyPipeline.escape(json, removal.key());
+            json.append("\"}");
+        }
+        json.append(']');
+    }
+
+    private String keyOf(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        Path base = baseDir.toAbsolutePath().normalize();
+        String key = normalized.startsWith(base) ? base.relativize(normalized).toString() : normalized.toString();
+        return key.replace('\\', '/');
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.schematicsfix;
+
+import java.io.IOException;
+
+// 文件不是合法的gzip压缩NBT，重试也不会成功
+public class InvalidSchematicException extends IOException {
+    public InvalidSchematicException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.schematicsfix;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+// 忽略大小写的Aho-Corasick多模式匹配器，每个字符串只需扫描一遍
+// 编译后的自动机保存在扁平数组中，匹配过程不分配内存
+public final class KeywordMatcher {
+    private final String[] keywords;
+    private final boolean matchesEverything;
+
+    // 节点i的出边是edgeChars/edgeTargets中[edgeStart[i], edgeStart[i + 1])这一段，按字符排序
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    // 到达该节点时命中的关键词下标（包括沿失败链可达的），没有则为-1
+    private final int[] output;
+
+    public KeywordMatcher(List<? extends String> keywords) {
+        this.keywords = keywords.toArray(new String[0]);
+
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new TreeMap<>());
+        terminal.add(-1);
+
+        boolean empty = false;
+        for (int k = 0; k < this.keywords.length; k++) {
+            String keyword = this.keywords[k];
+            if (keyword.isEmpty()) {
+                // 与String.contains保持一致，空关键词匹配任何字符串
+                empty = true;
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    terminal.add(-1);
+                    children.get(node).put(c, next);
+                }
+                node = next;
+            }
+            if (terminal.get(node) < 0) {
+                terminal.set(node, k);
+            }
+        }
+        this.matchesEverything = empty;
+
+        int nodeCount = children.size();
+        int edgeCount = nodeCount - 1;
+        this.edgeStart = new int[nodeCount + 1];
+        this.edgeChars = new char[edgeCount];
+        this.edgeTargets = new int[edgeCount];
+        int edge = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            edgeStart[node] = edge;
+            for (var entry : children.get(node).entrySet()) {
+                edgeChars[edge] = entry.getKey();
+                edgeTargets[edge] = entry.getValue();
+                edge++;
+            }
+        }
+        edgeStart[nodeCount] = edge;
+
+        // 广度优先构建失败指针
+        this.fail = new int[nodeCount];
+        this.output = new int[nodeCount];
+        Arrays.fill(output, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            int child = edgeTargets[e];
+            fail[child] = 0;
+            output[child] = terminal.get(child);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+                int child = edgeTargets[e];
+                char c = edgeChars[e];
+                int f = fail[node];
+                int target;
+                while ((target = step(f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 ? target : 0;
+                output[child] = terminal.get(child) >= 0 ? terminal.get(child) : output[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return keywords.length == 0;
+    }
+
+    public String keyword(int index) {
+        return keywords[index];
+    }
+
+    // 返回命中的关键词下标，未命中返回-1
+    public int match(char[] chars, int offset, int length) {
+        if (matchesEverything) return firstEmptyKeyword();
+
+        int state = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            state = next(state, Character.toLowerCase(chars[i]));
+            if (output[state] >= 0) {
+                return output[state];
+            }
+        }
+        return -1;
+    }
+
+    public int match(CharSequence text) {
+        if (matchesEverything) return firstEmptyKeyword();
+
+        int state = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            if (output[state] >= 0) {
+                return output[state];
+            }
+        }
+        return -1;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = step(state, c);
+            if (target >= 0) return target;
+            if (state == 0) return 0;
+            state = fail[state];
+        }
+    }
+
+    // 在节点出边中二分查找字符
+    private int step(int node, char c) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private int firstEmptyKeyword() {
+        for (int i = 0; i < keywords.length; i++) {
+            if (keywords[i].isEmpty()) return i;
+        }
+        return -1;
+    }
+}
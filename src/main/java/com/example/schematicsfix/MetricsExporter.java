@@ -0,0 +1,47 @@
+package com.example.schematicsfix;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 定期把统计数据以Prometheus文本格式写入本地文件，供node_exporter的textfile收集器读取
+public class MetricsExporter {
+    private static final Logger LOGGER = Logger.getLogger(MetricsExporter.class.getName());
+
+    private final Path file;
+    private final ScheduledExecutorService scheduler;
+
+    public MetricsExporter(Path file, int intervalSeconds) {
+        this.file = file;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SchematicFix-Metrics");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private void flush() {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            Files.writeString(tempFile, SchematicMetrics.toPrometheus(), StandardCharsets.UTF_8);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to write metrics file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// 用显式栈遍历NBT树，一遍完成组件清理和关键词检查
+// 深度和节点数都有上限，恶意构造的深层嵌套不会耗尽线程栈或CPU
+final class NbtTraversal {
+    // 审计日志只需要示例，记录的组件名达到这个数量后不再收集
+    private static final int MAX_REMOVED_KEYS = 64;
+    // 记录路径时每个文件最多保留的删除记录
+    private static final int MAX_REMOVALS = 256;
+
+    // 一处被删除的组件，path是所在components标签的NBT路径
+    record Removal(String path, String key) {}
+
+    // 容器在树中的位置，只在记录路径时创建，需要时才拼成字符串
+    private record PathNode(PathNode parent, String key, int index) {
+        String format() {
+            StringBuilder builder = new StringBuilder();
+            appendTo(builder);
+            return builder.toString();
+        }
+
+        private void appendTo(StringBuilder builder) {
+            if (parent != null) {
+                parent.appendTo(builder);
+            }
+            if (key != null) {
+                if (builder.length() > 0) builder.append('.');
+                builder.append(key);
+            } else if (index >= 0) {
+                builder.append('[').append(index).append(']');
+            }
+        }
+    }
+
+    private final ComponentAllowlist allowlist;
+    private final KeywordMatcher keywordMatcher;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final boolean recordPaths;
+
+    private Tag[] tags = new Tag[64];
+    private ComponentAllowlist.Position[] positions = new ComponentAllowlist.Position[64];
+    private int[] depths = new int[64];
+    private PathNode[] paths;
+    private int size;
+    private int nodes;
+    private int matchedKeyword;
+    private boolean modified;
+    private final Set<String> removedKeys = new LinkedHashSet<>();
+    private final List<Removal> removals = new ArrayList<>();
+    private final List<String> scratch = new ArrayList<>();
+    private String matchedPath;
+
+    // allowlist为null时只检查关键词，keywordMatcher为null时只清理组件
+    NbtTraversal(ComponentAllowlist allowlist, KeywordMatcher keywordMatcher, int maxDepth, int maxNodes) {
+        this(allowlist, keywordMatcher, maxDepth, maxNodes, false);
+    }
+
+    // recordPaths为true时记录每处删除和命中关键词的NBT路径，用于只报告模式，普通检查不产生额外分配
+    NbtTraversal(ComponentAllowlist allowlist, KeywordMatcher keywordMatcher, int maxDepth, int maxNodes,
+                 boolean recordPaths) {
+        this.allowlist = allowlist;
+        this.keywordMatcher = keywordMatcher;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.recordPaths = recordPaths;
+        this.paths = recordPaths ? new PathNode[64] : null;
+    }
+
+    NbtTraversal(ScanRules rules, boolean checkKeywords) {
+        this(rules, checkKeywords, false);
+    }
+
+    NbtTraversal(ScanRules rules, boolean checkKeywords, boolean recordPaths) {
+        this(rules.allowlist(), checkKeywords ? rules.keywordMatcher() : null, rules.maxDepth(), rules.maxNodes(),
+            recordPaths);
+    }
+
+    // 上一次遍历是否删除了组件
+    boolean isModified() {
+        return modified;
+    }
+
+    // 上一次遍历删除的组件名（去重，只保留前面一部分）
+    Set<String> removedKeys() {
+        return removedKeys;
+    }
+
+    // 上一次遍历的每处删除，只在记录路径时收集，只保留前面一部分
+    List<Removal> removals() {
+        return removals;
+    }
+
+    // 命中关键词的字符串标签的NBT路径，未命中或未记录路径时为null
+    String matchedPath() {
+        return matchedPath;
+    }
+
+    // 返回命中的关键词下标，未命中返回-1；命中后立即停止，剩余部分既不清理也不检查
+    int run(Tag root) throws SchematicLimitException {
+        size = 0;
+        nodes = 0;
+        matchedKeyword = -1;
+        modified = false;
+        removedKeys.clear();
+        removals.clear();
+        matchedPath = null;
+        try {
+            if (visit(root, ComponentAllowlist.Position.ROOT, 0, null, null, -1)) {
+                return matchedKeyword;
+            }
+
+            while (size > 0) {
+                size--;
+                Tag tag = tags[size];
+                ComponentAllowlist.Position position = positions[size];
+                int depth = depths[size];
+                PathNode path = recordPaths ? paths[size] : null;
+                tags[size] = null;
+
+                if (tag instanceof CompoundTag compound) {
+                    if (allowlist != null && compound.contains("components", Tag.TAG_COMPOUND)) {
+                        cleanComponents(compound, position, path);
+                    }
+                    for (String key : compound.getAllKeys()) {
+                        if (visit(compound.get(key), position.child(key), depth + 1, path, key, -1)) {
+                            return matchedKeyword;
+                        }
+                    }
+                } else if (tag instanceof ListTag list) {
+                    ComponentAllowlist.Position elementPosition = position.element();
+                    for (int i = 0, n = list.size(); i < n; i++) {
+                        if (visit(list.get(i), elementPosition, depth + 1, path, null, i)) {
+                            return matchedKeyword;
+                        }
+                    }
+                }
+            }
+            return -1;
+        } finally {
+            Arrays.fill(tags, 0, size, null);
+            if (recordPaths) {
+                Arrays.fill(paths, 0, size, null);
+            }
+            size = 0;
+        }
+    }
+
+    private void cleanComponents(CompoundTag compound, ComponentAllowlist.Position position, PathNode path) {
+        if (!recordPaths) {
+            modified |= SchematicProcessor.cleanComponents(compound.getCompound("components"),
+                allowlist, position.componentsContext(),
+                removedKeys.size() < MAX_REMOVED_KEYS ? removedKeys : null);
+            return;
+        }
+
+        scratch.clear();
+        if (SchematicProcessor.cleanComponents(compound.getCompound("components"), allowlist,
+                position.componentsContext(), scratch)) {
+            modified = true;
+            String componentsPath = new PathNode(path, "components", -1).format();
+            for (String key : scratch) {
+                if (removedKeys.size() < MAX_REMOVED_KEYS) {
+                    removedKeys.add(key);
+                }
+                if (removals.size() < MAX_REMOVALS) {
+                    removals.add(new Removal(componentsPath, key));
+                }
+            }
+        }
+    }
+
+    // 字符串立即检查，容器压栈；返回true表示已命中关键词
+    // parent、key和index描述标签在树中的位置，只在记录路径时使用
+    private boolean visit(Tag tag, ComponentAllowlist.Position position, int depth,
+                          PathNode parent, String key, int index) throws SchematicLimitException {
+        if (++nodes > maxNodes) {
+            throw new SchematicLimitException("contains more than " + maxNodes + " tags");
+        }
+
+        if (tag instanceof CompoundTag || tag instanceof ListTag) {
+            if (depth > maxDepth) {
+                throw new SchematicLimitException("is nested deeper than " + maxDepth + " levels");
+            }
+            push(tag, position, depth, recordPaths ? new PathNode(parent, key, index) : null);
+        } else if (keywordMatcher != null && tag instanceof StringTag stringTag) {
+            int keyword = keywordMatcher.match(stringTag.getAsString());
+            if (keyword >= 0) {
+                matchedKeyword = keyword;
+                if (recordPaths) {
+                    matchedPath = new PathNode(parent, key, index).format();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void push(Tag tag, ComponentAllowlist.Position position, int depth, PathNode path) {
+        if (size == tags.length) {
+            int capacity = size * 2;
+            tags = Arrays.copyOf(tags, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            if (recordPaths) {
+                paths = Arrays.copyOf(paths, capacity);
+            }
+        }
+        tags[size] = tag;
+        positions[size] = position;
+        depths[size] = depth;
+        if (recordPaths) {
+            paths[size] = path;
+        }
+        size++;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.schematicsfix;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ProcessingPool {
+    public enum RejectionPolicy {
+        CALLER_RUNS,
+        DISCARD,
+        DISCARD_OLDEST,
+        ABORT
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessingPool.class.getName());
+
+    private final MinecraftServer server;
+    private final RejectionPolicy rejectionPolicy;
+    // 平台线程模式
+    private final ThreadPoolExecutor executor;
+    // 虚拟线程模式：每个任务一个虚拟线程，等待许可的任务数相当于线程池的队列长度
+    private final ExecutorService virtualExecutor;
+    private final Semaphore permits;
+    private final int queueSize;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public ProcessingPool(MinecraftServer server, int threads, int queueSize, RejectionPolicy rejectionPolicy) {
+        this(server, threads, queueSize, rejectionPolicy, false);
+    }
+
+    // virtualThreads为true时threads是同时处理的任务数上限，重试等待和文件锁等待只阻塞虚拟线程
+    public ProcessingPool(MinecraftServer server, int threads, int queueSize, RejectionPolicy rejectionPolicy,
+                          boolean virtualThreads) {
+        this.server = server;
+        this.rejectionPolicy = rejectionPolicy;
+        this.queueSize = queueSize;
+
+        if (virtualThreads) {
+            this.executor = null;
+            this.virtualExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("SchematicFix-Virtual-", 0).factory());
+            this.permits = new Semaphore(threads);
+            return;
+        }
+        this.virtualExecutor = null;
+        this.permits = null;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+            threads, threads,
+            30L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "SchematicFix-Worker-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                // 文件处理不应与游戏主线程争抢CPU
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            },
+            this::handleRejected
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static ProcessingPool fromConfig(MinecraftServer server) {
+        boolean virtualThreads = Config.USE_VIRTUAL_THREADS.get();
+        return new ProcessingPool(
+            server,
+            virtualThreads ? Config.MAX_VIRTUAL_THREADS.get() : Config.WORKER_THREADS.get(),
+            Config.WORKER_QUEUE_SIZE.get(),
+            Config.REJECTION_POLICY.get(),
+            virtualThreads
+        );
+    }
+
+    // 提交文件处理任务，被拒绝时返回false
+    public boolean submit(Runnable task) {
+        return submit(task, null);
+    }
+
+    // onDropped在任务已入队、随后又被DISCARD_OLDEST挤出队列时调用
+    public boolean submit(Runnable task, Runnable onDropped) {
+        try {
+            if (virtualExecutor != null) {
+                executeVirtual(task);
+            } else {
+                executor.execute(onDropped == null ? task : new DroppableTask(task, onDropped));
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            SchematicMetrics.TASKS_REJECTED.increment();
+            LOGGER.log(rejectionPolicy == RejectionPolicy.DISCARD ? Level.FINE : Level.WARNING,
+                "Schematic worker queue is full, task rejected");
+            return false;
+        }
+    }
+
+    public int getQueuedTaskCount() {
+        return virtualExecutor != null ? waiting.get() : executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return virtualExecutor != null ? active.get() : executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        ExecutorService service = virtualExecutor != null ? virtualExecutor : executor;
+        service.shutdownNow();
+        try {
+            service.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void executeVirtual(Runnable task) {
+        if (waiting.incrementAndGet() > queueSize) {
+            waiting.decrementAndGet();
+            handleRejectedVirtual(task);
+            return;
+        }
+        try {
+            virtualExecutor.execute(() -> runWithPermit(task));
+        } catch (RejectedExecutionException e) {
+            waiting.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void runWithPermit(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            // 关闭时中断，任务不再执行
+            waiting.decrementAndGet();
+            return;
+        }
+        waiting.decrementAndGet();
+        active.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    // 等待许可的虚拟线程没有先后顺序，DISCARD_OLDEST按DISCARD处理
+    private void handleRejectedVirtual(Runnable task) {
+        if (virtualExecutor.isShutdown()) {
+            throw new RejectedExecutionException("Schematic worker pool is shut down");
+        }
+        if (rejectionPolicy != RejectionPolicy.CALLER_RUNS) {
+            throw new RejectedExecutionException("Schematic worker queue is full");
+        }
+        if (server != null && server.isSameThread()) {
+            throw new RejectedExecutionException("Refusing to run schematic task on the server thread");
+        }
+        task.run();
+    }
+
+    private void handleRejected(Runnable task, ThreadPoolExecutor pool) {
+        if (pool.isShutdown()) {
+            throw new RejectedExecutionException("Schematic worker pool is shut down");
+        }
+
+        switch (rejectionPolicy) {
+            case CALLER_RUNS -> {
+                // 绝不能回退到服务器主线程执行
+                if (server != null && server.isSameThread()) {
+                    throw new RejectedExecutionException("Refusing to run schematic task on the server thread");
+                }
+                task.run();
+            }
+            // 丢弃的任务也要让调用方知道，以便释放它占用的资源
+            case DISCARD -> throw new RejectedExecutionException("Discarded schematic task, worker queue is full");
+            case DISCARD_OLDEST -> {
+                Runnable oldest = pool.getQueue().poll();
+                if (oldest instanceof DroppableTask droppable) {
+                    droppable.onDropped().run();
+                }
+                pool.execute(task);
+            }
+            case ABORT -> throw new RejectedExecutionException("Schematic worker queue is full");
+        }
+    }
+
+    private record DroppableTask(Runnable task, Runnable onDropped) implements Runnable {
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
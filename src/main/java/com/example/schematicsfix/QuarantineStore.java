@@ -0,0 +1,435 @@
+package com.example.schematicsfix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 按内容寻址的隔离区：相同内容只保存一份，以SHA-256命名
+//   blobs/ab/abcdef....nbt     文件内容
+//   index/<玩家>.tsv           该玩家每一次被隔离的记录，每行：时间 哈希 大小 动作 文件名 原因
+// 超过保留期的记录和不再被引用的内容会被清理，总大小超过上限时按最近出现时间淘汰最旧的内容
+public class QuarantineStore {
+    public record Entry(String playerName, long time, String sha256, long size, String action,
+                        String fileName, String reason) {}
+
+    private static final Logger LOGGER = Logger.getLogger(QuarantineStore.class.getName());
+    private static final String BLOB_SUFFIX = ".nbt";
+    private static final String INDEX_SUFFIX = ".tsv";
+
+    private final Path blobDir;
+    private final Path indexDir;
+    private final long maxBytes;
+    private final long retentionMillis;
+
+    // 以下字段都由this保护
+    private final Map<String, List<Entry>> entries = new HashMap<>();
+    // 哈希 -> 内容大小和最近一次出现的时间
+    private final Map<String, Blob> blobs = new HashMap<>();
+    // 已经备份或正在备份、还没有记录的内容 -> 引用次数，清理时视为被引用
+    private final Map<String, Integer> pinned = new HashMap<>();
+    private long totalBytes;
+
+    private static final class Blob {
+        final long size;
+        long lastSeen;
+
+        Blob(long size, long lastSeen) {
+            this.size = size;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    // retentionDays为0时不按时间清理
+    public QuarantineStore(Path anomalyDir, long maxBytes, int retentionDays) {
+        this.blobDir = anomalyDir.resolve("blobs");
+        this.indexDir = anomalyDir.resolve("index");
+        this.maxBytes = maxBytes;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+    }
+
+    public static QuarantineStore fromConfig() {
+        return new QuarantineStore(SchematicFixMod.ANOMALY_DIR, Config.QUARANTINE_MAX_SIZE.get() * 1024L * 1024L,
+            Config.QUARANTINE_RETENTION.get());
+    }
+
+    // 读取所有玩家的索引和已保存的内容，然后按保留期和大小上限清理一次
+    public synchronized void load() {
+        entries.clear();
+        blobs.clear();
+        totalBytes = 0;
+
+        try {
+            Files.createDirectories(blobDir);
+            Files.createDirectories(indexDir);
+            try (DirectoryStream<Path> shards = Files.newDirectoryStream(blobDir)) {
+                for (Path shard : shards) {
+                    if (!Files.isDirectory(shard)) continue;
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*" + BLOB_SUFFIX)) {
+                        for (Path file : files) {
+                            String name = file.getFileName().toString();
+                            long size = Files.size(file);
+                            blobs.put(name.substring(0, name.length() - BLOB_SUFFIX.length()), new Blob(size, 0));
+                            totalBytes += size;
+                        }
+                    }
+                }
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(indexDir, "*" + INDEX_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    String playerName = name.substring(0, name.length() - INDEX_SUFFIX.length());
+                    List<Entry> list = new ArrayList<>();
+                    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        Entry entry = parse(playerName, line);
+                        if (entry == null) continue;
+                        list.add(entry);
+                        Blob blob = blobs.get(entry.sha256());
+                        if (blob != null) {
+                            blob.lastSeen = Math.max(blob.lastSeen, entry.time());
+                        }
+                    }
+                    entries.put(playerName, list);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load quarantine store: " + e.getMessage());
+        }
+
+        prune(System.currentTimeMillis());
+    }
+
+    public Path blobPath(String sha256) {
+        return blobDir.resolve(sha256.substring(0, 2)).resolve(sha256 + BLOB_SUFFIX);
+    }
+
+    // 备份之前调用，之后的record或unpin解除；期间prune不会删除这份内容，
+    // 否则内容已存在时跳过的备份可能在记录之前被清理掉
+    public synchronized void pin(String sha256) {
+        pinned.merge(sha256, 1, Integer::sum);
+    }
+
+    public synchronized void unpin(String sha256) {
+        pinned.computeIfPresent(sha256, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    // 内容已经保存过时直接返回true；否则尝试从原文件创建硬链接，不支持硬链接时返回false，由调用方写入内容
+    // 原文件之后只会被原子替换，硬链接保留的是当前内容；调用前必须先pin
+    // size和modifiedTime是读取内容时的属性：链接指向的文件与之不同说明原文件已被替换或改写，
+    // 链接的内容与哈希不符，此时也返回false；属性从链接本身读取，检查之后路径再被替换也不影响结果
+    public boolean linkBlob(Path file, String sha256, long size, long modifiedTime) throws IOException {
+        Path target = blobPath(sha256);
+        if (Files.exists(target)) return true;
+
+        Files.createDirectories(target.getParent());
+        Path temp = newTempPath(target);
+        try {
+            Files.delete(temp);
+            Files.createLink(temp, file);
+            BasicFileAttributes linked = Files.readAttributes(temp, BasicFileAttributes.class);
+            if (linked.size() == size && linked.lastModifiedTime().toMillis() == modifiedTime) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            }
+        } catch (UnsupportedOperationException | FileAlreadyExistsException | SecurityException e) {
+            // 回退到写入内容
+        } catch (IOException e) {
+            // 跨文件系统等情况，回退到写入内容
+        }
+        Files.deleteIfExists(temp);
+        return false;
+    }
+
+    public void writeBlob(String sha256, byte[] content) throws IOException {
+        Path target = blobPath(sha256);
+        if (Files.exists(target)) return;
+
+        Files.createDirectories(target.getParent());
+        Path temp = newTempPath(target);
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // 不支持硬链接且内容没有读入内存时，在修改原文件之前同步复制
+    // 复制的同时计算哈希，原文件在计算sha256之后被改动时放弃备份，不保存与名称不符的内容
+    public void copyBlob(Path file, String sha256) throws IOException {
+        Path target = blobPath(sha256);
+        if (Files.exists(target)) return;
+
+        Files.createDirectories(target.getParent());
+        Path temp = newTempPath(target);
+        try {
+            MessageDigest digest = VerdictCache.newDigest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!HexFormat.of().formatHex(digest.digest()).equals(sha256)) {
+                throw new FileBusyException("File changed while it was being backed up");
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // 把整个文件移入隔离区并返回它的哈希，内容已存在时只删除原文件；返回的内容已经pin，由record解除
+    // 先移到隔离区内的临时文件再计算哈希：原路径在此之后被重新上传或改写都不会影响保存的内容与名称是否相符
+    public String moveIn(Path file) throws IOException {
+        Files.createDirectories(blobDir);
+        Path temp = Files.createTempFile(blobDir, "incoming.", ".tmp");
+        try {
+            Files.move(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            String sha256 = HexFormat.of().formatHex(VerdictCache.hashFile(temp));
+            pin(sha256);
+            try {
+                Path target = blobPath(sha256);
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                unpin(sha256);
+                throw e;
+            }
+            return sha256;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // 记录一次隔离，内容必须已经保存；同时解除备份时的pin
+    public void record(String playerName, long time, String sha256, String action, String fileName, String reason) {
+        Path blobFile = blobPath(sha256);
+        long size;
+        try {
+            size = Files.size(blobFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Quarantined content " + sha256 + " is missing: " + e.getMessage());
+            unpin(sha256);
+            return;
+        }
+
+        Entry entry = new Entry(playerName, time, sha256, size, action, clean(fileName), clean(reason));
+        synchronized (this) {
+            Blob blob = blobs.get(sha256);
+            if (blob == null) {
+                blobs.put(sha256, new Blob(size, time));
+                totalBytes += size;
+            } else {
+                blob.lastSeen = Math.max(blob.lastSeen, time);
+            }
+            entries.computeIfAbsent(playerName, name -> new ArrayList<>()).add(entry);
+            unpin(sha256);
+
+            Path index = indexPath(playerName);
+            try {
+                Files.createDirectories(indexDir);
+                try (BufferedWriter writer = Files.newBufferedWriter(index, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(format(entry));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to update quarantine index " + index + ": " + e.getMessage());
+            }
+
+            if (totalBytes > maxBytes) {
+                prune(time);
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    public synchronized int getEntryCount() {
+        int count = 0;
+        for (List<Entry> list : entries.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    // 该玩家的记录，最新的在前
+    public synchronized List<Entry> entriesFor(String playerName) {
+        List<Entry> list = new ArrayList<>(entries.getOrDefault(playerName, List.of()));
+        list.sort(Comparator.comparingLong(Entry::time).reversed());
+        return list;
+    }
+
+    // 按哈希前缀查找所有玩家的记录，最新的在前
+    public synchronized List<Entry> find(String hashPrefix) {
+        String prefix = hashPrefix.toLowerCase();
+        List<Entry> result = new ArrayList<>();
+        for (List<Entry> list : entries.values()) {
+            for (Entry entry : list) {
+                if (entry.sha256().startsWith(prefix)) {
+                    result.add(entry);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(Entry::time).reversed());
+        return result;
+    }
+
+    // 把内容复制到target，target已存在时抛出FileAlreadyExistsException
+    // 先写临时文件再创建硬链接：链接在target已存在时原子地失败，不会覆盖玩家在此期间上传的同名文件
+    public void restore(String sha256, Path target) throws IOException {
+        Path source = blobPath(sha256);
+        if (!Files.exists(source)) {
+            throw new NoSuchFileException(source.toString());
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = tempPath(target);
+        Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            Files.createLink(target, temp);
+        } catch (UnsupportedOperationException e) {
+            // 不支持硬链接时直接复制，不带REPLACE_EXISTING时以独占方式创建target
+            Files.copy(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // 删除超过保留期的记录，再按最近出现时间淘汰内容直到低于大小上限，最后删除不再被引用的内容
+    public synchronized void prune(long now) {
+        long cutoff = retentionMillis > 0 ? now - retentionMillis : Long.MIN_VALUE;
+        Set<String> evicted = new HashSet<>();
+
+        if (totalBytes > maxBytes) {
+            List<Map.Entry<String, Blob>> byAge = new ArrayList<>(blobs.entrySet());
+            byAge.sort(Comparator.comparingLong(entry -> entry.getValue().lastSeen));
+            long remaining = totalBytes;
+            for (Map.Entry<String, Blob> entry : byAge) {
+                if (remaining <= maxBytes) break;
+                if (pinned.containsKey(entry.getKey())) continue;
+                evicted.add(entry.getKey());
+                remaining -= entry.getValue().size;
+            }
+        }
+
+        Set<String> referenced = new HashSet<>();
+        for (Map.Entry<String, List<Entry>> player : entries.entrySet()) {
+            List<Entry> list = player.getValue();
+            boolean changed = list.removeIf(entry -> entry.time() < cutoff || evicted.contains(entry.sha256()));
+            for (Entry entry : list) {
+                referenced.add(entry.sha256());
+            }
+            if (changed) {
+                rewriteIndex(player.getKey(), list);
+            }
+        }
+        entries.values().removeIf(List::isEmpty);
+
+        int removed = 0;
+        long freed = 0;
+        for (var iterator = blobs.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Blob> entry = iterator.next();
+            if (referenced.contains(entry.getKey()) || pinned.containsKey(entry.getKey())) continue;
+            try {
+                Files.deleteIfExists(blobPath(entry.getKey()));
+                iterator.remove();
+                totalBytes -= entry.getValue().size;
+                freed += entry.getValue().size;
+                removed++;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete quarantined content " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        if (removed > 0) {
+            LOGGER.log(Level.INFO, "Removed " + removed + " quarantined files (" + freed / 1024 + " KiB)");
+        }
+    }
+
+    private void rewriteIndex(String playerName, List<Entry> list) {
+        Path index = indexPath(playerName);
+        try {
+            if (list.isEmpty()) {
+                Files.deleteIfExists(index);
+                return;
+            }
+            Path temp = tempPath(index);
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Entry entry : list) {
+                    writer.write(format(entry));
+                }
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to rewrite quarantine index " + index + ": " + e.getMessage());
+        }
+    }
+
+    // 每个玩家的记录数，用于命令中显示概况
+    public synchronized Map<String, Integer> countsByPlayer() {
+        Map<String, Integer> counts = new TreeMap<>();
+        entries.forEach((player, list) -> counts.put(player, list.size()));
+        return counts;
+    }
+
+    private Path indexPath(String playerName) {
+        return indexDir.resolve(playerName + INDEX_SUFFIX);
+    }
+
+    private static Path tempPath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".tmp");
+    }
+
+    // 不同文件可能有相同的内容，同时备份同一哈希时各自使用唯一的临时文件
+    private static Path newTempPath(Path target) throws IOException {
+        return Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+    }
+
+    private static String format(Entry entry) {
+        return entry.time() + "\t" + entry.sha256() + "\t" + entry.size() + "\t" + entry.action() + "\t"
+            + entry.fileName() + "\t" + entry.reason() + "\n";
+    }
+
+    private static Entry parse(String playerName, String line) {
+        String[] fields = line.split("\t", 6);
+        if (fields.length < 6) return null;
+        try {
+            return new Entry(playerName, Long.parseLong(fields[0]), fields[1], Long.parseLong(fields[2]),
+                fields[3], fields[4], fields[5]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // 索引按制表符和换行分隔，字段中不能包含它们
+    private static String clean(String value) {
+        if (value == null) return "";
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
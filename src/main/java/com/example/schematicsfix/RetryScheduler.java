@@ -0,0 +1,170 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.ReportedNbtException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
+
+// 处理失败的文件不在工作线程中等待重试，而是按指数退避加随机抖动延迟后重新提交
+// 不可重试的错误或重试次数用尽时移入失败列表并通知管理员，不会被静默跳过
+public class RetryScheduler {
+    public enum Failure {
+        // 文件正在写入或被锁定，读到了不完整的数据
+        TRANSIENT(true),
+        // 其他I/O错误
+        IO(true),
+        // 不是合法的schematic，重试不会改变结果，可能是恶意构造的文件
+        CORRUPT(false),
+        // 处理代码本身抛出的异常
+        UNEXPECTED(false),
+        // 文件已被删除，无需处理
+        GONE(false);
+
+        public final boolean retryable;
+
+        Failure(boolean retryable) {
+            this.retryable = retryable;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(RetryScheduler.class.getName());
+    private static final long SAVE_INTERVAL_SECONDS = 30;
+
+    private final ProcessingPool processingPool;
+    private final DeadLetterQueue deadLetters;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final ScheduledThreadPoolExecutor executor;
+    // 已安排重试的文件，同一文件只保留一个待执行的重试
+    private final Map<Path, Integer> pending = new ConcurrentHashMap<>();
+
+    public RetryScheduler(ProcessingPool processingPool, DeadLetterQueue deadLetters, int maxAttempts,
+                          long baseDelayMs, long maxDelayMs) {
+        this.processingPool = processingPool;
+        this.deadLetters = deadLetters;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = Math.max(baseDelayMs, maxDelayMs);
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "SchematicFix-Retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public static RetryScheduler fromConfig(ProcessingPool processingPool, DeadLetterQueue deadLetters) {
+        return new RetryScheduler(processingPool, deadLetters, Config.MAX_RETRY_ATTEMPTS.get(),
+            Config.RETRY_BASE_DELAY.get(), Config.RETRY_MAX_DELAY.get());
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(deadLetters::save, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // 放弃尚未执行的重试，它们的文件会在下次扫描或启动对账时重新检查
+    public void stop() {
+        executor.shutdownNow();
+        pending.clear();
+        deadLetters.save();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public DeadLetterQueue getDeadLetters() {
+        return deadLetters;
+    }
+
+    public void onSuccess(Path file) {
+        deadLetters.remove(file);
+    }
+
+    public static Failure classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoSuchFileException) return Failure.GONE;
+            if (cause instanceof SchematicLimitException
+                || cause instanceof InvalidSchematicException
+                || cause instanceof UTFDataFormatException
+                || cause instanceof ZipException) {
+                return Failure.CORRUPT;
+            }
+            // 截断的数据通常是文件还没写完；Windows上被占用的文件会报AccessDenied
+            if (cause instanceof FileBusyException
+                || cause instanceof EOFException
+                || cause instanceof AccessDeniedException
+                || cause instanceof RejectedExecutionException) {
+                return Failure.TRANSIENT;
+            }
+        }
+        if (error instanceof ReportedNbtException) return Failure.CORRUPT;
+        if (error instanceof IOException) return Failure.IO;
+        return Failure.UNEXPECTED;
+    }
+
+    // attempt从0开始，是刚刚失败的这一次
+    public void onFailure(Path file, String playerName, int attempt, Exception error) {
+        Failure failure = classify(error);
+        if (failure == Failure.GONE) {
+            deadLetters.remove(file);
+            return;
+        }
+
+        int nextAttempt = attempt + 1;
+        if (failure.retryable && nextAttempt < maxAttempts) {
+            if (pending.putIfAbsent(file, nextAttempt) != null) return;
+            SchematicMetrics.recordRetry(error);
+            try {
+                executor.schedule(() -> resubmit(file, playerName, nextAttempt), backoffMillis(attempt),
+                    TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，按失败处理
+                pending.remove(file);
+            }
+        }
+
+        SchematicMetrics.FILES_FAILED.increment();
+        String message = error.getClass().getSimpleName() + (error.getMessage() != null ? ": " + error.getMessage() : "");
+        deadLetters.add(file, playerName, failure, nextAttempt, message);
+        LOGGER.log(Level.WARNING, String.format("Giving up on schematic %s for player %s after %d attempts (%s, %s)",
+            file.getFileName(), playerName, nextAttempt, failure, message));
+
+        AnomalyPipeline pipeline = SchematicFixMod.getAnomalyPipeline();
+        if (pipeline != null) {
+            pipeline.report(new AnomalyPipeline.Report(playerName, file, "failed",
+                "could not be processed, " + failure + ": " + message, null, List.of(), null));
+        }
+    }
+
+    // 等量抖动：在指数退避值的后一半中随机选取，既分散重试又保证最小间隔
+    long backoffMillis(int attempt) {
+        long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 30));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    private void resubmit(Path file, String playerName, int attempt) {
+        pending.remove(file);
+        boolean accepted = processingPool.submit(() -> SchematicProcessor.retrySchematicFile(this, file, playerName, attempt));
+        if (!accepted) {
+            onFailure(file, playerName, attempt, new RejectedExecutionException("Schematic worker queue is full"));
+        }
+    }
+}
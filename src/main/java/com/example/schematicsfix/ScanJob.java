@@ -0,0 +1,312 @@
+package com.example.schematicsfix;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// 并行扫描整个上传目录，每个玩家目录是一个工作单元，大目录会继续拆分
+public class ScanJob {
+    public enum Result {
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    private static final int SPLIT_THRESHOLD = 64;
+    private static final Logger LOGGER = Logger.getLogger(ScanJob.class.getName());
+
+    private final Path rootDir;
+    private final long modifiedSince;
+    private final int parallelism;
+    private final boolean virtualThreads;
+    private final long progressIntervalMs;
+    private final Consumer<String> reporter;
+
+    private final AtomicInteger totalCount = new AtomicInteger();
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final AtomicInteger anomalyCount = new AtomicInteger();
+    private volatile boolean cancelled;
+    private long startTime;
+    private DeadLetterQueue deadLetters;
+
+    // virtualThreads为true时每个文件一个虚拟线程，parallelism是同时处理的文件数上限
+    public ScanJob(Path rootDir, long modifiedSince, int parallelism, boolean virtualThreads,
+                   long progressIntervalMs, Consumer<String> reporter) {
+        this.rootDir = rootDir;
+        this.modifiedSince = modifiedSince;
+        this.parallelism = parallelism;
+        this.virtualThreads = virtualThreads;
+        this.progressIntervalMs = progressIntervalMs;
+        this.reporter = reporter;
+    }
+
+    // 扫描使用自己的线程，不经过ProcessingPool，与监听器的工作线程数分别限制
+    public static int defaultParallelism() {
+        int configured = Config.SCAN_PARALLELISM.get();
+        if (configured > 0) return configured;
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public int getAnomalyCount() {
+        return anomalyCount.get();
+    }
+
+    public int getTotalCount() {
+        return totalCount.get();
+    }
+
+    // 在调用线程上阻塞直到扫描结束，期间定期汇报进度
+    public Result run() {
+        startTime = System.currentTimeMillis();
+        RetryScheduler retryScheduler = SchematicFixMod.getRetryScheduler();
+        deadLetters = retryScheduler != null ? retryScheduler.getDeadLetters() : null;
+        if (deadLetters != null) {
+            deadLetters.removeMissing();
+        }
+        Result result = virtualThreads ? runVirtual() : runForkJoin();
+        if (result != Result.COMPLETED) {
+            return result;
+        }
+        // 只有完整扫描才更新时间点，记录开始时间以免漏掉扫描期间修改的文件
+        if (modifiedSince <= 0) {
+            writeLastCompletedScan(startTime);
+        }
+        return Result.COMPLETED;
+    }
+
+    private Result runForkJoin() {
+        ForkJoinPool pool = new ForkJoinPool(parallelism, ScanJob::newWorkerThread, null, false);
+        try {
+            List<UnitAction> units = listWorkUnits().stream().map(UnitAction::new).toList();
+            ForkJoinTask<?> task = pool.submit(() -> ForkJoinTask.invokeAll(units));
+            while (true) {
+                try {
+                    task.get(progressIntervalMs, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    reporter.accept(formatProgress());
+                }
+            }
+        } catch (IOException | ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Schematic scan failed: " + e.getMessage());
+            return Result.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } finally {
+            pool.shutdownNow();
+        }
+        return cancelled ? Result.CANCELLED : Result.COMPLETED;
+    }
+
+    // 每个文件一个虚拟线程，executor在try-with-resources结束时等待所有任务完成，
+    // 任务不会比扫描本身活得更久（StructuredTaskScope在Java 21中仍是预览API）
+    private Result runVirtual() {
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("SchematicFix-Scan-", 0).factory())) {
+            try {
+                List<Path> units = listWorkUnits();
+                Future<?> listing = executor.submit(() -> {
+                    for (Path unit : units) {
+                        if (cancelled) break;
+                        submitFiles(executor, permits, collectFiles(unit));
+                    }
+                    return null;
+                });
+                while (true) {
+                    try {
+                        listing.get(progressIntervalMs, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        reporter.accept(formatProgress());
+                    }
+                }
+                // 所有许可都能拿到时，已提交的文件都处理完了
+                while (!permits.tryAcquire(parallelism, progressIntervalMs, TimeUnit.MILLISECONDS)) {
+                    reporter.accept(formatProgress());
+                }
+            } catch (IOException | ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Schematic scan failed: " + e.getMessage());
+                cancelled = true;
+                executor.shutdownNow();
+                return Result.FAILED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                executor.shutdownNow();
+            }
+        }
+        return cancelled ? Result.CANCELLED : Result.COMPLETED;
+    }
+
+    // 先拿到许可再创建虚拟线程，同时存在的任务数不超过parallelism
+    private void submitFiles(ExecutorService executor, Semaphore permits, List<Path> files) throws InterruptedException {
+        totalCount.addAndGet(files.size());
+        for (Path file : files) {
+            if (cancelled) break;
+            permits.acquire();
+            executor.execute(() -> {
+                try {
+                    processFile(file);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    private void processFile(Path file) {
+        Path playerDir = file.getParent().getFileName();
+        if (playerDir == null) return;
+
+        if (SchematicProcessor.processSchematicFile(file, playerDir.toString())) {
+            anomalyCount.incrementAndGet();
+        }
+        processedCount.incrementAndGet();
+    }
+
+    public String formatProgress() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        long rate = processedCount.get() * 1000L / elapsed;
+        return String.format("%d/%d files, %d anomalies, %d files/s",
+            processedCount.get(), totalCount.get(), anomalyCount.get(), rate);
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    // 每个顶层条目（通常是玩家目录）是一个工作单元
+    private List<Path> listWorkUnits() throws IOException {
+        try (Stream<Path> children = Files.list(rootDir)) {
+            return children.toList();
+        }
+    }
+
+    private List<Path> collectFiles(Path unit) {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(unit)) {
+            paths.filter(p -> p.toString().endsWith(".nbt"))
+                 .filter(this::isCandidate)
+                 .forEach(files::add);
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Failed to list schematics in " + unit.getFileName() + ": " + e.getMessage());
+        }
+        return files;
+    }
+
+    public static long readLastCompletedScan() {
+        Path file = SchematicFixMod.LAST_SCAN_FILE;
+        try {
+            if (!Files.exists(file)) return 0;
+            return Long.parseLong(Files.readString(file, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void writeLastCompletedScan(long time) {
+        try {
+            Files.writeString(SchematicFixMod.LAST_SCAN_FILE, Long.toString(time), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to record last scan time: " + e.getMessage());
+        }
+    }
+
+    private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("SchematicFix-Scan-" + thread.getPoolIndex());
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    }
+
+    // 每个工作单元列出自己的文件后再处理
+    private class UnitAction extends RecursiveAction {
+        private final Path unit;
+
+        UnitAction(Path unit) {
+            this.unit = unit;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) return;
+            List<Path> files = collectFiles(unit);
+            if (!files.isEmpty()) {
+                totalCount.addAndGet(files.size());
+                new ProcessAction(files, 0, files.size()).invoke();
+            }
+        }
+    }
+
+    private boolean isCandidate(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) return false;
+            // 之前处理失败的文件无论修改时间都重新检查
+            return modifiedSince <= 0 || attributes.lastModifiedTime().toMillis() > modifiedSince
+                || (deadLetters != null && deadLetters.contains(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private class ProcessAction extends RecursiveAction {
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        ProcessAction(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ProcessAction(files, from, mid), new ProcessAction(files, mid, to));
+                return;
+            }
+
+            for (int i = from; i < to && !cancelled; i++) {
+                processFile(files.get(i));
+            }
+        }
+    }
+}
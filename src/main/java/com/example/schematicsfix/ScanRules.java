@@ -0,0 +1,125 @@
+package com.example.schematicsfix;
+
+import java.util.List;
+
+// 从配置编译出的检查规则快照，配置加载或重载时整体替换
+public final class ScanRules {
+    private static volatile ScanRules current;
+
+    private final KeywordMatcher keywordMatcher;
+    private final ComponentAllowlist allowlist;
+    private final boolean useStreamingScanner;
+    private final long maxFileSize;
+    private final long maxDecompressedSize;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final boolean reportOnly;
+    private final int rewriteLevel;
+    private final long fingerprint;
+
+    public ScanRules(boolean keywordCheck, List<? extends String> bannedKeywords, List<? extends String> allowedComponents,
+                     boolean useStreamingScanner, long maxFileSize, long maxDecompressedSize,
+                     int maxDepth, int maxNodes) {
+        this(keywordCheck, bannedKeywords, allowedComponents, useStreamingScanner, maxFileSize, maxDecompressedSize,
+            maxDepth, maxNodes, false, Config.REWRITE_COMPRESSION_LEVEL.getDefault());
+    }
+
+    public ScanRules(boolean keywordCheck, List<? extends String> bannedKeywords, List<? extends String> allowedComponents,
+                     boolean useStreamingScanner, long maxFileSize, long maxDecompressedSize,
+                     int maxDepth, int maxNodes, boolean reportOnly, int rewriteLevel) {
+        this.keywordMatcher = keywordCheck && !bannedKeywords.isEmpty() ? new KeywordMatcher(bannedKeywords) : null;
+        this.allowlist = ComponentAllowlist.compile(allowedComponents);
+        this.useStreamingScanner = useStreamingScanner;
+        this.maxFileSize = maxFileSize;
+        this.maxDecompressedSize = maxDecompressedSize;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.reportOnly = reportOnly;
+        this.rewriteLevel = rewriteLevel;
+        this.fingerprint = VerdictCache.fingerprint(keywordCheck, bannedKeywords, allowlist.rules(),
+            maxFileSize, maxDecompressedSize, maxDepth, maxNodes);
+    }
+
+    public static ScanRules current() {
+        ScanRules rules = current;
+        if (rules == null) {
+            // 配置尚未加载时使用默认值
+            rules = new ScanRules(
+                Config.ENABLE_KEYWORD_CHECK.getDefault(),
+                Config.BANNED_KEYWORDS.getDefault(),
+                Config.ALLOWED_COMPONENTS.getDefault(),
+                Config.USE_STREAMING_SCANNER.getDefault(),
+                Config.MAX_FILE_SIZE.getDefault() * 1024L,
+                Config.MAX_DECOMPRESSED_SIZE.getDefault() * 1024L,
+                Config.MAX_NBT_DEPTH.getDefault(),
+                Config.MAX_NBT_NODES.getDefault(),
+                Config.REPORT_ONLY.getDefault(),
+                Config.REWRITE_COMPRESSION_LEVEL.getDefault()
+            );
+            current = rules;
+        }
+        return rules;
+    }
+
+    public static void reload() {
+        current = new ScanRules(
+            Config.ENABLE_KEYWORD_CHECK.get(),
+            Config.BANNED_KEYWORDS.get(),
+            Config.ALLOWED_COMPONENTS.get(),
+            Config.USE_STREAMING_SCANNER.get(),
+            Config.MAX_FILE_SIZE.get() * 1024L,
+            Config.MAX_DECOMPRESSED_SIZE.get() * 1024L,
+            Config.MAX_NBT_DEPTH.get(),
+            Config.MAX_NBT_NODES.get(),
+            Config.REPORT_ONLY.get(),
+            Config.REWRITE_COMPRESSION_LEVEL.get()
+        );
+    }
+
+    // 关键词检查关闭或列表为空时返回null
+    public KeywordMatcher keywordMatcher() {
+        return keywordMatcher;
+    }
+
+    public ComponentAllowlist allowlist() {
+        return allowlist;
+    }
+
+    public boolean useStreamingScanner() {
+        return useStreamingScanner;
+    }
+
+    // 压缩文件的最大字节数
+    public long maxFileSize() {
+        return maxFileSize;
+    }
+
+    // 解压后的最大字节数
+    public long maxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+    // compound和list的最大嵌套深度
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    // 单个文件允许的最大标签数
+    public int maxNodes() {
+        return maxNodes;
+    }
+
+    // 只记录会做的修改，不改动文件
+    public boolean reportOnly() {
+        return reportOnly;
+    }
+
+    // 写出清理后文件时的deflate级别，不影响检查结论
+    public int rewriteLevel() {
+        return rewriteLevel;
+    }
+
+    public long fingerprint() {
+        return fingerprint;
+    }
+}
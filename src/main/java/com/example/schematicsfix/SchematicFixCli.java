@@ -0,0 +1,550 @@
+package com.example.schematicsfix;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.electronwill.nightconfig.toml.TomlParser;
+import net.neoforged.neoforge.common.ModConfigSpec;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// 离线批量清理：不启动游戏和服务器，用与服务器相同的检查规则并行处理目录、zip或tar中的schematic
+// 干净的文件原样输出，含有不允许组件的文件输出清理后的版本，违禁、超限或无法解析的文件不输出
+// 每个文件的结论按路径排序写入JSON行报告；通过 ./gradlew sanitize --args="..." 运行
+public final class SchematicFixCli {
+    private static final int EXIT_CLEAN = 0;
+    private static final int EXIT_USAGE = 1;
+    // 有文件被清理、拒绝或无法处理
+    private static final int EXIT_FINDINGS = 2;
+    // tar中GNU长文件名和pax扩展头的大小上限
+    private static final int MAX_TAR_HEADER_SIZE = 1024 * 1024;
+
+    private record Options(Path input, Path output, Path report, Path configFile, boolean dryRun, int threads) {}
+
+    // keywordPath和removals只在dry run时记录
+    private record Result(String name, String verdict, long size, String sha256, String reason, String keyword,
+                          String keywordPath, List<String> removedKeys, List<NbtTraversal.Removal> removals) {
+        static Result failed(String name, String reason) {
+            return new Result(name, "failed", -1, null, reason, null, null, List.of(), List.of());
+        }
+    }
+
+    // 在工作线程中读取一个文件的内容，超过maxSize时返回null
+    @FunctionalInterface
+    private interface Loader {
+        byte[] load(long maxSize) throws IOException;
+    }
+
+    private SchematicFixCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        Options options;
+        ScanRules rules;
+        try {
+            options = parse(args);
+            rules = loadRules(options.configFile());
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            return EXIT_USAGE;
+        }
+
+        long start = System.nanoTime();
+        List<Result> results;
+        try {
+            results = process(options, rules);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Failed to read " + options.input() + ": " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        results.sort(Comparator.comparing(Result::name));
+
+        try {
+            writeReport(results, options.report());
+        } catch (IOException e) {
+            System.err.println("Failed to write report " + options.report() + ": " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        int[] counts = new int[4];
+        for (Result result : results) {
+            switch (result.verdict()) {
+                case "clean" -> counts[0]++;
+                case "rewritten" -> counts[1]++;
+                case "banned" -> counts[2]++;
+                default -> counts[3]++;
+            }
+        }
+        System.err.printf("Checked %d schematics in %d ms: %d clean, %d rewritten, %d banned, %d failed%s%n",
+            results.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            counts[0], counts[1], counts[2], counts[3], options.dryRun() ? " (dry run, nothing written)" : "");
+        return counts[0] == results.size() ? EXIT_CLEAN : EXIT_FINDINGS;
+    }
+
+    private static String usage() {
+        return String.join(System.lineSeparator(),
+            "Usage: SchematicFixCli <directory|file.zip|file.tar|file.tar.gz> [options]",
+            "  --output <dir>     write clean and sanitized schematics here, keeping relative paths",
+            "  --dry-run          only check and report, write no schematics; the report includes NBT paths",
+            "  --report <file>    JSON lines report, one object per schematic (default: standard output)",
+            "  --config <file>    read the rules from schematicsfix-common.toml instead of the defaults",
+            "  --threads <n>      worker threads (default: number of processors)",
+            "Exit status: 0 all clean, 1 usage or input error, 2 some schematics were rewritten, banned or unreadable");
+    }
+
+    private static Options parse(String[] args) {
+        Path input = null;
+        Path output = null;
+        Path report = null;
+        Path configFile = null;
+        boolean dryRun = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--output" -> output = Path.of(value(args, ++i, arg));
+                case "--report" -> {
+                    String value = value(args, ++i, arg);
+                    report = value.equals("-") ? null : Path.of(value);
+                }
+                case "--config" -> configFile = Path.of(value(args, ++i, arg));
+                case "--dry-run" -> dryRun = true;
+                case "--threads" -> {
+                    try {
+                        threads = Integer.parseInt(value(args, ++i, arg));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("--threads needs a number");
+                    }
+                    if (threads < 1) throw new IllegalArgumentException("--threads must be at least 1");
+                }
+                default -> {
+                    if (arg.startsWith("--") || input != null) {
+                        throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                    input = Path.of(arg);
+                }
+            }
+        }
+
+        if (input == null) throw new IllegalArgumentException("No input given");
+        if (!Files.exists(input)) throw new IllegalArgumentException("Input does not exist: " + input);
+        if (output == null && !dryRun) throw new IllegalArgumentException("Either --output or --dry-run is required");
+        if (dryRun) output = null;
+        if (output != null) {
+            output = output.toAbsolutePath().normalize();
+            // 输出到输入目录中会在遍历时读到自己写出的文件
+            if (Files.isDirectory(input) && output.startsWith(input.toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException("--output must not be inside the input directory");
+            }
+        }
+        return new Options(input, output, report, configFile, dryRun, threads);
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[index];
+    }
+
+    // 没有指定配置文件时使用与服务器相同的默认值；配置文件中缺少的项同样使用默认值
+    private static ScanRules loadRules(Path configFile) throws IOException {
+        if (configFile == null) {
+            return ScanRules.current();
+        }
+
+        UnmodifiableConfig config;
+        try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            config = new TomlParser().parse(reader);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to parse " + configFile + ": " + e.getMessage(), e);
+        }
+        return new ScanRules(
+            value(config, Config.ENABLE_KEYWORD_CHECK),
+            value(config, Config.BANNED_KEYWORDS),
+            value(config, Config.ALLOWED_COMPONENTS),
+            value(config, Config.USE_STREAMING_SCANNER),
+            value(config, Config.MAX_FILE_SIZE) * 1024L,
+            value(config, Config.MAX_DECOMPRESSED_SIZE) * 1024L,
+            value(config, Config.MAX_NBT_DEPTH),
+            value(config, Config.MAX_NBT_NODES),
+            false,
+            value(config, Config.REWRITE_COMPRESSION_LEVEL)
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T value(UnmodifiableConfig config, ModConfigSpec.ConfigValue<T> spec) {
+        Object value = config.get(spec.getPath());
+        T fallback = spec.getDefault();
+        if (value instanceof Number number && fallback instanceof Integer) {
+            return (T) Integer.valueOf(number.intValue());
+        }
+        if (value instanceof List<?> list && fallback instanceof List<?>) {
+            List<String> strings = new ArrayList<>(list.size());
+            for (Object element : list) {
+                strings.add(String.valueOf(element));
+            }
+            return (T) strings;
+        }
+        return value != null && fallback.getClass().isInstance(value) ? (T) value : fallback;
+    }
+
+    private static List<Result> process(Options options, ScanRules rules) throws IOException {
+        Path input = options.input();
+        String name = input.getFileName() != null ? input.getFileName().toString().toLowerCase(Locale.ROOT) : "";
+        try (Batch batch = new Batch(rules, options.output(), options.dryRun(), options.threads())) {
+            if (Files.isDirectory(input)) {
+                scanDirectory(input, batch);
+            } else if (name.endsWith(".zip")) {
+                scanZip(input, batch);
+            } else if (name.endsWith(".tar")) {
+                scanTar(input, false, batch);
+            } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+                scanTar(input, true, batch);
+            } else {
+                throw new IOException("Unsupported input, expected a directory, .zip, .tar or .tar.gz");
+            }
+            return batch.results();
+        }
+    }
+
+    // 文件由工作线程各自读取
+    private static void scanDirectory(Path root, Batch batch) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(".nbt") || !Files.isRegularFile(file)) continue;
+                String name = root.relativize(file).toString().replace('\\', '/');
+                batch.submit(name, maxSize -> Files.size(file) > maxSize ? null : Files.readAllBytes(file));
+            }
+            batch.await();
+        }
+    }
+
+    // ZipFile支持并发读取不同的条目，同样由工作线程各自解压
+    private static void scanZip(Path archive, Batch batch) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".nbt")) continue;
+                batch.submit(entry.getName(), maxSize -> {
+                    try (InputStream input = zip.getInputStream(entry)) {
+                        return readLimited(input, maxSize);
+                    }
+                });
+            }
+            batch.await();
+        }
+    }
+
+    // tar只能顺序读取，在当前线程读出内容后交给工作线程检查
+    private static void scanTar(Path archive, boolean gzipped, Batch batch) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(archive), 64 * 1024);
+        try (TarReader tar = new TarReader(gzipped ? new GZIPInputStream(raw, 64 * 1024) : raw)) {
+            TarReader.Entry entry;
+            while ((entry = tar.next()) != null) {
+                if (!entry.isFile() || !entry.name().endsWith(".nbt")) continue;
+                if (entry.size() > batch.rules.maxFileSize()) {
+                    batch.submit(entry.name(), maxSize -> null);
+                    continue;
+                }
+                byte[] data = tar.readContent();
+                batch.submit(entry.name(), maxSize -> data);
+            }
+            batch.await();
+        }
+    }
+
+    // 最多读取maxSize字节，超过时返回null
+    private static byte[] readLimited(InputStream input, long maxSize) throws IOException {
+        byte[] data = input.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxSize + 1));
+        return data.length > maxSize ? null : data;
+    }
+
+    private static void writeReport(List<Result> results, Path report) throws IOException {
+        StringBuilder json = new StringBuilder(256);
+        try (OutputStream output = report != null ? Files.newOutputStream(report) : null) {
+            PrintStream writer = new PrintStream(output != null ? output : System.out, false, StandardCharsets.UTF_8);
+            for (Result result : results) {
+                json.setLength(0);
+                json.append('{');
+                json.append("\"file\":\"");
+                AnomalyPipeline.escape(json, result.name());
+                json.append("\",\"size\":").append(result.size());
+                AnomalyPipeline.field(json, "verdict", result.verdict());
+                AnomalyPipeline.field(json, "sha256", result.sha256());
+                AnomalyPipeline.field(json, "reason", result.reason());
+                AnomalyPipeline.field(json, "keyword", result.keyword());
+                json.append(",\"removedKeys\":[");
+                for (int i = 0; i < result.removedKeys().size(); i++) {
+                    if (i > 0) json.append(',');
+                    json.append('"');
+                    AnomalyPipeline.escape(json, result.removedKeys().get(i));
+                    json.append('"');
+                }
+                json.append(']');
+                if (!result.removals().isEmpty() || result.keywordPath() != null) {
+                    AnomalyPipeline.field(json, "keywordPath", result.keywordPath());
+                    ImpactReport.appendRemovals(json, result.removals());
+                }
+                writer.println(json.append('}'));
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("write error");
+            }
+        }
+    }
+
+    // 固定数量的工作线程，已读入内存但尚未检查的文件数受信号量限制
+    private static final class Batch implements Closeable {
+        final ScanRules rules;
+        private final Path output;
+        private final boolean recordPaths;
+        private final int maxPending;
+        private final ExecutorService workers;
+        private final Semaphore permits;
+        private final List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger threadIndex = new AtomicInteger();
+
+        Batch(ScanRules rules, Path output, boolean recordPaths, int threads) {
+            this.rules = rules;
+            this.output = output;
+            this.recordPaths = recordPaths;
+            this.maxPending = threads * 4;
+            this.permits = new Semaphore(maxPending);
+            this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "SchematicFix-Cli-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void submit(String name, Loader loader) {
+            permits.acquireUninterruptibly();
+            workers.execute(() -> {
+                try {
+                    results.add(check(name, loader));
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        // 等待已提交的文件全部完成
+        void await() {
+            permits.acquireUninterruptibly(maxPending);
+            permits.release(maxPending);
+        }
+
+        List<Result> results() {
+            synchronized (results) {
+                return new ArrayList<>(results);
+            }
+        }
+
+        private Result check(String name, Loader loader) {
+            Path target = null;
+            if (output != null) {
+                target = output.resolve(name).normalize();
+                // 压缩包中的绝对路径或..不能写到输出目录之外
+                if (!target.startsWith(output)) {
+                    return Result.failed(name, "unsafe path");
+                }
+            }
+
+            try {
+                byte[] data = loader.load(rules.maxFileSize());
+                if (data == null) {
+                    return new Result(name, "banned", -1, null, "file is larger than " + rules.maxFileSize() + " bytes",
+                        null, null, List.of(), List.of());
+                }
+
+                SchematicProcessor.Inspection inspection = SchematicProcessor.inspect(data, rules, recordPaths);
+                String sha256 = HexFormat.of().formatHex(VerdictCache.newDigest().digest(data));
+                if (target != null && inspection.verdict() != VerdictCache.Verdict.BANNED) {
+                    Files.createDirectories(target.getParent());
+                    Files.write(target, inspection.cleaned() != null ? inspection.cleaned() : data);
+                }
+                return new Result(name, inspection.verdict().name().toLowerCase(Locale.ROOT), data.length, sha256,
+                    inspection.reason(), inspection.matchedKeyword(), inspection.keywordPath(), inspection.removedKeys(),
+                    inspection.removals());
+            } catch (Exception e) {
+                String message = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+                return Result.failed(name, message);
+            }
+        }
+
+        @Override
+        public void close() {
+            workers.shutdownNow();
+        }
+    }
+
+    // 最小的tar读取器：支持ustar和GNU格式的普通文件、GNU长文件名以及pax扩展头中的path
+    private static final class TarReader implements Closeable {
+        record Entry(String name, long size, boolean isFile) {}
+
+        private static final int BLOCK = 512;
+
+        private final InputStream input;
+        // 当前条目尚未读取的内容和之后的填充字节
+        private long remaining;
+        private long padding;
+
+        TarReader(InputStream input) {
+            this.input = input;
+        }
+
+        // 返回下一个条目，归档结束时返回null；未读取的内容会被跳过
+        Entry next() throws IOException {
+            skip(remaining + padding);
+            remaining = 0;
+            padding = 0;
+
+            String longName = null;
+            while (true) {
+                byte[] header = input.readNBytes(BLOCK);
+                if (header.length == 0) return null;
+                if (header.length < BLOCK) throw new EOFException("Truncated tar header");
+                if (isZeroBlock(header)) return null;
+
+                String name = string(header, 0, 100);
+                long size = number(header, 124, 12);
+                byte type = header[156];
+                if (string(header, 257, 6).startsWith("ustar")) {
+                    String prefix = string(header, 345, 155);
+                    if (!prefix.isEmpty()) name = prefix + "/" + name;
+                }
+                if (size < 0) throw new IOException("Invalid tar entry size");
+                remaining = size;
+                padding = (BLOCK - size % BLOCK) % BLOCK;
+
+                if (type == 'L' || type == 'x' || type == 'g') {
+                    if (size > MAX_TAR_HEADER_SIZE) throw new IOException("Tar extended header is too large");
+                    byte[] content = readContent();
+                    if (type == 'L') {
+                        longName = trimNul(new String(content, StandardCharsets.UTF_8));
+                    } else if (type == 'x') {
+                        String path = paxPath(content);
+                        if (path != null) longName = path;
+                    }
+                    continue;
+                }
+                return new Entry(longName != null ? longName : name, size, type == '0' || type == 0 || type == '7');
+            }
+        }
+
+        // 读取当前条目的全部内容，调用方负责先检查大小
+        byte[] readContent() throws IOException {
+            if (remaining > Integer.MAX_VALUE - 8) throw new IOException("Tar entry is too large");
+            byte[] data = input.readNBytes((int) remaining);
+            if (data.length < remaining) throw new EOFException("Truncated tar entry");
+            remaining = 0;
+            skip(padding);
+            padding = 0;
+            return data;
+        }
+
+        private void skip(long count) throws IOException {
+            if (count > 0) {
+                input.skipNBytes(count);
+            }
+        }
+
+        // pax记录的格式为"长度 键=值\n"，长度按字节计算并包含自身
+        private static String paxPath(byte[] content) {
+            int pos = 0;
+            while (pos < content.length) {
+                int space = pos;
+                while (space < content.length && content[space] != ' ') space++;
+                int length;
+                try {
+                    length = Integer.parseInt(new String(content, pos, space - pos, StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (length <= space - pos || pos + length > content.length) return null;
+                String record = new String(content, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+                if (record.startsWith("path=")) return record.substring(5);
+                pos += length;
+            }
+            return null;
+        }
+
+        private static boolean isZeroBlock(byte[] block) {
+            for (byte b : block) {
+                if (b != 0) return false;
+            }
+            return true;
+        }
+
+        private static String string(byte[] header, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && header[end] != 0) end++;
+            return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+        }
+
+        private static String trimNul(String value) {
+            int end = value.indexOf('\0');
+            return end >= 0 ? value.substring(0, end) : value;
+        }
+
+        // 八进制文本，或最高位置1时为GNU的二进制大数
+        private static long number(byte[] header, int offset, int length) {
+            if ((header[offset] & 0x80) != 0) {
+                long value = header[offset] & 0x7F;
+                for (int i = 1; i < length; i++) {
+                    value = (value << 8) | (header[offset + i] & 0xFF);
+                }
+                return value;
+            }
+            long value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                byte b = header[i];
+                if (b == 0 || b == ' ') {
+                    if (value > 0) break;
+                    continue;
+                }
+                if (b < '0' || b > '7') return -1;
+                value = value * 8 + (b - '0');
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
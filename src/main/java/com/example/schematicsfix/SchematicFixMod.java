@@ -1,12 +1,17 @@
 package com.example.schematicsfix;
 
+import com.example.schematicsfix.commands.FailedCommand;
+import com.example.schematicsfix.commands.ImpactCommand;
+import com.example.schematicsfix.commands.QuarantineCommand;
 import com.example.schematicsfix.commands.ScanAllCommand;
+import com.example.schematicsfix.commands.StatsCommand;
 import net.minecraft.server.MinecraftServer;
 import net.neoforged.bus.api.IEventBus;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.common.Mod;
 import net.neoforged.fml.config.ModConfig;
+import net.neoforged.fml.event.config.ModConfigEvent;
 import net.neoforged.fml.loading.FMLPaths;
 import net.neoforged.neoforge.common.NeoForge;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
@@ -21,24 +26,78 @@ public class SchematicFixMod {
     public static final Path SCHEMATICS_DIR = FMLPaths.GAMEDIR.get().resolve("schematics");
     public static final Path UPLOADED_DIR = SCHEMATICS_DIR.resolve("uploaded");
     public static final Path ANOMALY_DIR = SCHEMATICS_DIR.resolve("anomaly");
+    public static final Path VERDICT_CACHE_FILE = SCHEMATICS_DIR.resolve("schematicsfix-verdicts.bin");
+    public static final Path LAST_SCAN_FILE = SCHEMATICS_DIR.resolve("schematicsfix-lastscan.txt");
+    public static final Path METRICS_FILE = SCHEMATICS_DIR.resolve("schematicsfix-metrics.prom");
+    public static final Path AUDIT_LOG_FILE = SCHEMATICS_DIR.resolve("schematicsfix-audit.log");
+    public static final Path FAILED_FILE = SCHEMATICS_DIR.resolve("schematicsfix-failed.tsv");
+    public static final Path INDEX_FILE = SCHEMATICS_DIR.resolve("schematicsfix-index.bin");
+    public static final Path IMPACT_FILE = SCHEMATICS_DIR.resolve("schematicsfix-impact.jsonl");
+    public static final Path IMPACT_SUMMARY_FILE = SCHEMATICS_DIR.resolve("schematicsfix-impact.tsv");
     
+    private static ProcessingPool processingPool;
+    private static VerdictCache verdictCache;
+    private static AnomalyPipeline anomalyPipeline;
+    private static RetryScheduler retryScheduler;
+    private static ImpactReport impactReport;
     private SchematicWatcher watcher;
+    private MetricsExporter metricsExporter;
 
     public SchematicFixMod(IEventBus modEventBus, ModContainer container) {
         container.registerConfig(ModConfig.Type.COMMON, Config.SPEC);
+        modEventBus.addListener(this::onConfigLoading);
+        modEventBus.addListener(this::onConfigReloading);
         NeoForge.EVENT_BUS.register(this);
     }
 
+    private void onConfigLoading(ModConfigEvent.Loading event) {
+        if (event.getConfig().getSpec() == Config.SPEC) {
+            ScanRules.reload();
+        }
+    }
+
+    private void onConfigReloading(ModConfigEvent.Reloading event) {
+        if (event.getConfig().getSpec() == Config.SPEC) {
+            ScanRules.reload();
+        }
+    }
+
     @SubscribeEvent
     public void onServerStarting(ServerStartingEvent event) {
         MinecraftServer server = event.getServer();
-        watcher = new SchematicWatcher(server, UPLOADED_DIR);
+        processingPool = ProcessingPool.fromConfig(server);
+        ProcessingPool pool = processingPool;
+        SchematicMetrics.registerGauge("worker_queue_depth", "Tasks waiting for a worker thread", pool::getQueuedTaskCount);
+        SchematicMetrics.registerGauge("worker_active", "Worker threads currently processing a task", pool::getActiveCount);
+        if (Config.ENABLE_VERDICT_CACHE.get()) {
+            verdictCache = new VerdictCache(UPLOADED_DIR, VERDICT_CACHE_FILE, Config.VERDICT_CACHE_SIZE.get());
+            verdictCache.load();
+        }
+        impactReport = new ImpactReport(UPLOADED_DIR, IMPACT_FILE, IMPACT_SUMMARY_FILE);
+        anomalyPipeline = AnomalyPipeline.fromConfig(server);
+        anomalyPipeline.start();
+        DeadLetterQueue deadLetters = new DeadLetterQueue(UPLOADED_DIR, FAILED_FILE);
+        deadLetters.load();
+        retryScheduler = RetryScheduler.fromConfig(processingPool, deadLetters);
+        retryScheduler.start();
+        RetryScheduler retries = retryScheduler;
+        SchematicMetrics.registerGauge("retries_pending", "Files waiting for a retry", retries::getPendingCount);
+        SchematicMetrics.registerGauge("files_dead_lettered", "Files that could not be processed after retrying", deadLetters::size);
+        watcher = new SchematicWatcher(server, UPLOADED_DIR, INDEX_FILE, processingPool);
         watcher.startWatching();
+        int metricsInterval = Config.METRICS_EXPORT_INTERVAL.get();
+        if (metricsInterval > 0) {
+            metricsExporter = new MetricsExporter(METRICS_FILE, metricsInterval);
+        }
     }
 
     @SubscribeEvent
     public void onRegisterCommands(RegisterCommandsEvent event) {
         ScanAllCommand.register(event.getDispatcher());
+        StatsCommand.register(event.getDispatcher());
+        QuarantineCommand.register(event.getDispatcher());
+        FailedCommand.register(event.getDispatcher());
+        ImpactCommand.register(event.getDispatcher());
     }
 
     @SubscribeEvent
@@ -46,5 +105,59 @@ public class SchematicFixMod {
         if (watcher != null) {
             watcher.stopWatching();
         }
+        if (retryScheduler != null) {
+            retryScheduler.stop();
+            retryScheduler = null;
+            SchematicMetrics.unregisterGauge("retries_pending");
+            SchematicMetrics.unregisterGauge("files_dead_lettered");
+        }
+        if (processingPool != null) {
+            processingPool.shutdown();
+            processingPool = null;
+            SchematicMetrics.unregisterGauge("worker_queue_depth");
+            SchematicMetrics.unregisterGauge("worker_active");
+        }
+        if (watcher != null) {
+            watcher.saveIndex();
+            watcher = null;
+        }
+        UploadInterceptor.clear();
+        // 工作线程停止后再停止，写完排队的审计记录
+        if (anomalyPipeline != null) {
+            anomalyPipeline.stop();
+            anomalyPipeline = null;
+        }
+        if (verdictCache != null) {
+            verdictCache.save();
+            verdictCache = null;
+        }
+        if (impactReport != null) {
+            impactReport.save();
+            impactReport = null;
+        }
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+    }
+
+    public static ProcessingPool getProcessingPool() {
+        return processingPool;
+    }
+
+    public static VerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+
+    public static AnomalyPipeline getAnomalyPipeline() {
+        return anomalyPipeline;
+    }
+
+    public static RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    public static ImpactReport getImpactReport() {
+        return impactReport;
     }
 }
\ No newline at end of file
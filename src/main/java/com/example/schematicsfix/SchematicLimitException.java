@@ -0,0 +1,10 @@
+package com.example.schematicsfix;
+
+import java.io.IOException;
+
+// 文件超出配置的大小、深度或节点数上限，视为异常文件处理而不是重试
+public class SchematicLimitException extends IOException {
+    public SchematicLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.schematicsfix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// 处理流程的计数器和直方图，记录路径只使用LongAdder，不加锁
+public final class SchematicMetrics {
+    private static final String PREFIX = "schematicsfix_";
+
+    public static final LongAdder FILES_QUEUED = new LongAdder();
+    public static final LongAdder FILES_PROCESSED = new LongAdder();
+    public static final LongAdder FILES_CLEAN = new LongAdder();
+    public static final LongAdder FILES_REWRITTEN = new LongAdder();
+    public static final LongAdder FILES_BANNED = new LongAdder();
+    public static final LongAdder FILES_FAILED = new LongAdder();
+    public static final LongAdder CACHE_HITS = new LongAdder();
+    public static final LongAdder TASKS_REJECTED = new LongAdder();
+    public static final LongAdder FILES_RATE_LIMITED = new LongAdder();
+
+    public static final Histogram PARSE_TIME = new Histogram("parse_time_micros",
+        "Time spent reading and checking one schematic, in microseconds");
+    public static final Histogram REWRITE_TIME = new Histogram("rewrite_time_micros",
+        "Time spent encoding and compressing one cleaned schematic, in microseconds");
+    public static final Histogram BYTES_DECOMPRESSED = new Histogram("bytes_decompressed",
+        "Uncompressed NBT bytes read per schematic");
+    public static final Histogram QUEUE_WAIT = new Histogram("queue_wait_micros",
+        "Time a stable file waited in its player queue and for a worker thread, in microseconds");
+    public static final Histogram SERVER_THREAD_TIME = new Histogram("server_thread_micros",
+        "Time spent on the server thread per scheduled task, in microseconds");
+
+    // 按异常类型统计重试次数
+    private static final Map<String, LongAdder> RETRIES = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+
+    private record Gauge(String help, LongSupplier value) {}
+
+    private SchematicMetrics() {
+    }
+
+    public static void recordVerdict(VerdictCache.Verdict verdict) {
+        FILES_PROCESSED.increment();
+        switch (verdict) {
+            case CLEAN -> FILES_CLEAN.increment();
+            case REWRITTEN -> FILES_REWRITTEN.increment();
+            case BANNED -> FILES_BANNED.increment();
+        }
+    }
+
+    public static void recordRetry(Throwable error) {
+        RETRIES.computeIfAbsent(error.getClass().getSimpleName(), type -> new LongAdder()).increment();
+    }
+
+    public static void recordMicros(Histogram histogram, long startNanos) {
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    // 包装要提交到服务器线程的任务，统计它占用主线程的时间
+    public static Runnable serverTask(Runnable task) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                recordMicros(SERVER_THREAD_TIME, start);
+            }
+        };
+    }
+
+    // 瞬时值在导出时才读取，例如队列长度
+    public static void registerGauge(String name, String help, LongSupplier value) {
+        GAUGES.put(name, new Gauge(help, value));
+    }
+
+    public static void unregisterGauge(String name) {
+        GAUGES.remove(name);
+    }
+
+    // 供/schematic-stats显示的简要统计
+    public static List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Files: %d queued, %d processed (%d clean, %d rewritten, %d banned), %d failed",
+            FILES_QUEUED.sum(), FILES_PROCESSED.sum(), FILES_CLEAN.sum(), FILES_REWRITTEN.sum(),
+            FILES_BANNED.sum(), FILES_FAILED.sum()));
+        lines.add(String.format("Cache hits: %d, rejected tasks: %d, rate limited files: %d",
+            CACHE_HITS.sum(), TASKS_REJECTED.sum(), FILES_RATE_LIMITED.sum()));
+
+        Map<String, Gauge> gauges = new TreeMap<>(GAUGES);
+        if (!gauges.isEmpty()) {
+            StringBuilder line = new StringBuilder("Now:");
+            gauges.forEach((name, gauge) -> line.append(' ').append(name).append('=').append(gauge.value().getAsLong()));
+            lines.add(line.toString());
+        }
+
+        Map<String, LongAdder> retries = new TreeMap<>(RETRIES);
+        if (!retries.isEmpty()) {
+            StringBuilder line = new StringBuilder("Retries:");
+            retries.forEach((type, count) -> line.append(' ').append(type).append('=').append(count.sum()));
+            lines.add(line.toString());
+        }
+
+        for (Histogram histogram : histograms()) {
+            lines.add(histogram.summary());
+        }
+        return lines;
+    }
+
+    // Prometheus文本格式
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "files_queued_total", "Files queued after a watch event", FILES_QUEUED);
+        counter(out, "files_processed_total", "Files fully checked", FILES_PROCESSED);
+        counter(out, "files_clean_total", "Files found clean", FILES_CLEAN);
+        counter(out, "files_rewritten_total", "Files rewritten to remove disallowed components", FILES_REWRITTEN);
+        counter(out, "files_banned_total", "Files truncated for banned keywords", FILES_BANNED);
+        counter(out, "files_failed_total", "Files that could not be processed", FILES_FAILED);
+        counter(out, "cache_hits_total", "Files skipped by the verdict cache", CACHE_HITS);
+        counter(out, "tasks_rejected_total", "Tasks rejected by the worker pool", TASKS_REJECTED);
+        counter(out, "files_rate_limited_total", "Uploads dropped or quarantined by the per-player limit", FILES_RATE_LIMITED);
+
+        String retries = PREFIX + "retries_total";
+        out.append("# HELP ").append(retries).append(" Processing retries by exception type\n");
+        out.append("# TYPE ").append(retries).append(" counter\n");
+        new TreeMap<>(RETRIES).forEach((type, count) ->
+            out.append(retries).append("{exception=\"").append(type).append("\"} ").append(count.sum()).append('\n'));
+
+        new TreeMap<>(GAUGES).forEach((name, gauge) -> {
+            out.append("# HELP ").append(PREFIX).append(name).append(' ').append(gauge.help()).append('\n');
+            out.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+            out.append(PREFIX).append(name).append(' ').append(gauge.value().getAsLong()).append('\n');
+        });
+
+        for (Histogram histogram : histograms()) {
+            histogram.appendPrometheus(out);
+        }
+        return out.toString();
+    }
+
+    private static List<Histogram> histograms() {
+        return List.of(PARSE_TIME, REWRITE_TIME, BYTES_DECOMPRESSED, QUEUE_WAIT, SERVER_THREAD_TIME);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        out.append(PREFIX).append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    // 以2的幂为边界的直方图：桶i保存 [2^(i-1), 2^i - 1] 范围内的值，桶0只保存0
+    public static final class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final String name;
+        private final String help;
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder sum = new LongAdder();
+
+        Histogram(String name, String help) {
+            this.name = name;
+            this.help = help;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets[bucket].increment();
+            sum.add(value);
+        }
+
+        private static long upperBound(int bucket) {
+            return (1L << bucket) - 1;
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+
+        // 返回分位数所在桶的上界，是一个偏大的估计值
+        private static long quantile(long[] counts, long total, double q) {
+            long rank = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        String summary() {
+            long[] counts = snapshot();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return name + ": no samples";
+            }
+            return String.format("%s: n=%d mean=%d p50<=%d p99<=%d",
+                name, total, sum.sum() / total, quantile(counts, total, 0.5), quantile(counts, total, 0.99));
+        }
+
+        void appendPrometheus(StringBuilder out) {
+            String metric = PREFIX + name;
+            out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(metric).append(" histogram\n");
+
+            long[] counts = snapshot();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                cumulative += counts[i];
+                out.append(metric).append("_bucket{le=\"").append(upperBound(i)).append("\"} ")
+                    .append(cumulative).append('\n');
+            }
+            cumulative += counts[BUCKETS - 1];
+            out.append(metric).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append(metric).append("_sum ").append(sum.sum()).append('\n');
+            out.append(metric).append("_count ").append(cumulative).append('\n');
+        }
+    }
+}
@@ -1,177 +1,580 @@
 package com.example.schematicsfix;
 
 import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtAccounterException;
 import net.minecraft.nbt.NbtIo;
-import net.minecraft.nbt.Tag;
-import net.minecraft.nbt.StringTag;
-import net.minecraft.network.chat.Component;
-import net.minecraft.server.MinecraftServer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class SchematicProcessor {
-    private static final String[] ALLOWED_TAGS = {
-        "create:clipboard_pages", 
-        "create:clipboard_type"
-    };
-    
-    private static final int MAX_RETRY_ATTEMPTS = 3;
-    private static final long RETRY_DELAY_MS = 300;
     private static final Logger LOGGER = Logger.getLogger(SchematicProcessor.class.getName());
 
-    public static boolean processSchematicFile(MinecraftServer server, Path file, String playerName) {
-        for (int attempt = 0; attempt < MAX_RETRY_ATTEMPTS; attempt++) {
+    // 正在处理的文件 -> 处理期间是否又收到了处理请求
+    // 监听器、/schematic-all、重试和上传拦截可能同时提交同一文件，同一时间只由一个线程读写它
+    private static final ConcurrentHashMap<Path, Boolean> IN_FLIGHT = new ConcurrentHashMap<>();
+    // 上传检查等待其他线程处理完同一文件时的轮询间隔
+    private static final long CLAIM_WAIT_MILLIS = 10;
+
+    public static boolean processSchematicFile(Path file, String playerName) {
+        return isModified(checkSchematicFile(file, playerName));
+    }
+
+    // 返回检查结论，跳过或失败时返回null
+    public static VerdictCache.Verdict checkSchematicFile(Path file, String playerName) {
+        return processSchematicFile(file, playerName, ScanRules.current(), SchematicFixMod.getVerdictCache(),
+            SchematicFixMod.getRetryScheduler(), 0);
+    }
+
+    // 上传拦截放行之前调用，只在工作线程中调用；received为null或文件已经变化时读取文件
+    // 需要的是当前内容的结论，文件正在被其他线程处理时等它结束，而不是记下请求后返回null
+    static VerdictCache.Verdict checkUploadedSchematic(Path file, String playerName,
+                                                       UploadInterceptor.Received received) {
+        while (IN_FLIGHT.putIfAbsent(file, Boolean.FALSE) != null) {
             try {
-                return processSchematicFileInternal(server, file, playerName);
-            } catch (Exception e) {
-                if (attempt < MAX_RETRY_ATTEMPTS - 1) {
-                    if (isRetryableException(e)) {
-                        try {
-                            Thread.sleep(RETRY_DELAY_MS * (attempt + 1));
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                        continue;
-                    }
+                Thread.sleep(CLAIM_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return processWhileClaimed(file, playerName, ScanRules.current(), SchematicFixMod.getVerdictCache(),
+            SchematicFixMod.getRetryScheduler(), received, 0);
+    }
+
+    // 由RetryScheduler在退避延迟之后调用，attempt是本次的尝试序号
+    static void retrySchematicFile(RetryScheduler retryScheduler, Path file, String playerName, int attempt) {
+        processSchematicFile(file, playerName, ScanRules.current(), SchematicFixMod.getVerdictCache(),
+            retryScheduler, attempt);
+    }
+
+    // 不安排重试，失败只记录日志
+    static boolean processSchematicFile(Path file, String playerName, ScanRules rules, VerdictCache verdictCache) {
+        return isModified(processSchematicFile(file, playerName, rules, verdictCache, null, 0));
+    }
+
+    private static boolean isModified(VerdictCache.Verdict verdict) {
+        return verdict != null && verdict != VerdictCache.Verdict.CLEAN;
+    }
+
+    // 文件正在被其他线程处理时不等待，记下请求后返回null，由正在处理的线程结束后再检查一次
+    private static VerdictCache.Verdict processSchematicFile(Path file, String playerName, ScanRules rules,
+                                                             VerdictCache verdictCache, RetryScheduler retryScheduler,
+                                                             int attempt) {
+        while (IN_FLIGHT.putIfAbsent(file, Boolean.FALSE) != null) {
+            if (IN_FLIGHT.computeIfPresent(file, (path, requested) -> Boolean.TRUE) != null) {
+                return null;
+            }
+        }
+        return processWhileClaimed(file, playerName, rules, verdictCache, retryScheduler, null, attempt);
+    }
+
+    // 调用方已经在IN_FLIGHT中占用了文件，返回前释放
+    private static VerdictCache.Verdict processWhileClaimed(Path file, String playerName, ScanRules rules,
+                                                            VerdictCache verdictCache, RetryScheduler retryScheduler,
+                                                            UploadInterceptor.Received received, int attempt) {
+        boolean released = false;
+        try {
+            VerdictCache.Verdict verdict = processClaimedFile(file, playerName, rules, verdictCache, retryScheduler,
+                received, attempt);
+            // 处理期间的请求可能对应一次新的写入，重新读取文件检查；内容未变时命中缓存
+            while (!(released = IN_FLIGHT.remove(file, Boolean.FALSE))) {
+                IN_FLIGHT.put(file, Boolean.FALSE);
+                verdict = processClaimedFile(file, playerName, rules, verdictCache, retryScheduler, null, attempt);
+            }
+            return verdict;
+        } finally {
+            if (!released) {
+                IN_FLIGHT.remove(file);
+            }
+        }
+    }
+
+    // 只尝试一次，失败后交给RetryScheduler安排重试或移入失败列表，不在当前线程等待
+    private static VerdictCache.Verdict processClaimedFile(Path file, String playerName, ScanRules rules,
+                                                           VerdictCache verdictCache, RetryScheduler retryScheduler,
+                                                           UploadInterceptor.Received received, int attempt) {
+        long fingerprint = rules.fingerprint();
+        VerdictCache.Verdict cached = verdictCache != null ? cachedVerdict(verdictCache, file, fingerprint) : null;
+        if (cached != null) {
+            SchematicMetrics.CACHE_HITS.increment();
+            // 缓存的结论对应未被改动的文件，不需要再次处理
+            return VerdictCache.Verdict.CLEAN;
+        }
+        
+        try {
+            Outcome outcome = processSchematicFileInternal(file, playerName, rules, received);
+            if (outcome == null) {
+                return null;
+            }
+            SchematicMetrics.recordVerdict(outcome.verdict());
+            if (verdictCache != null && outcome.cacheable()) {
+                if (outcome.contentHash() != null) {
+                    verdictCache.record(file, outcome.verdict(), fingerprint,
+                        outcome.size(), outcome.modifiedTime(), outcome.contentHash());
+                } else {
+                    verdictCache.record(file, outcome.verdict(), fingerprint);
                 }
+            }
+            if (retryScheduler != null) {
+                retryScheduler.onSuccess(file);
+            }
+            return outcome.verdict();
+        } catch (Exception e) {
+            if (retryScheduler != null) {
+                retryScheduler.onFailure(file, playerName, attempt, e);
+            } else {
+                SchematicMetrics.FILES_FAILED.increment();
                 LOGGER.log(Level.WARNING, 
                     String.format("Failed to process schematic file %s for player %s: %s",
                         file.getFileName(), playerName, e.getClass().getSimpleName())
                 );
             }
         }
-        return false;
+        return null;
     }
 
-    private static boolean isRetryableException(Exception e) {
-        return e instanceof java.io.EOFException ||
-               e instanceof java.util.zip.ZipException ||
-               e instanceof net.minecraft.nbt.ReportedNbtException ||
-               (e instanceof IOException && (
-                   e.getMessage() != null && (
-                       e.getMessage().contains("EOF") || 
-                       e.getMessage().contains("ZLIB") ||
-                       e.getMessage().contains("being used by another process") ||
-                       e.getMessage().contains("Unexpected end")
-                   )
-               ));
+    private static VerdictCache.Verdict cachedVerdict(VerdictCache verdictCache, Path file, long fingerprint) {
+        try {
+            return verdictCache.lookup(file, fingerprint);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 一次检查的结论；文件未被改写时带上读取时的大小、修改时间和内容哈希，写入缓存时无需再读一遍文件
+    // 只报告模式下文件没有被修改，结论不能缓存，否则关闭该模式后文件会被跳过
+    private record Outcome(VerdictCache.Verdict verdict, long size, long modifiedTime, byte[] contentHash,
+                           boolean cacheable) {
+        static Outcome of(VerdictCache.Verdict verdict) {
+            return new Outcome(verdict, -1, -1, null, true);
+        }
+
+        static Outcome reported(VerdictCache.Verdict verdict) {
+            return new Outcome(verdict, -1, -1, null, false);
+        }
     }
 
-    private static boolean processSchematicFileInternal(MinecraftServer server, Path file, String playerName) throws Exception {
-        if (!Files.exists(file)) return false;
+    // 返回本次检查的结论，文件不存在或未能处理时返回null
+    private static Outcome processSchematicFileInternal(Path file, String playerName, ScanRules rules,
+                                                        UploadInterceptor.Received received) throws Exception {
+        if (!Files.exists(file)) return null;
         
-        long fileSize = Files.size(file);
+        // 先读取属性再读取内容，读取期间文件若被修改，缓存会因修改时间不同而重新检查
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long fileSize = attributes.size();
         if (fileSize < 10) {
-            return false;
+            return null;
+        }
+        if (fileSize > rules.maxFileSize()) {
+            return rejectOverLimit(file, playerName, rules, attributes,
+                "file is larger than " + rules.maxFileSize() + " bytes");
         }
         
-        CompoundTag root = null;
-        
-        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
-            try (FileLock lock = channel.tryLock(0L, Long.MAX_VALUE, true)) {
-                if (lock == null) {
-                    throw new IOException("File is being used by another process");
-                }
-                
-                if (!isValidNbtFile(file)) {
-                    throw new IOException("Invalid NBT file format");
-                }
-                
-                try {
-                    root = NbtIo.readCompressed(file, NbtAccounter.unlimitedHeap());
-                } catch (net.minecraft.nbt.ReportedNbtException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof java.io.EOFException || 
-                        cause instanceof java.util.zip.ZipException) {
-                        throw new IOException("NBT file read error: " + cause.getMessage(), cause);
+        // 整个文件只通过一个通道读取一次，之后的校验、解析和哈希都使用内存中的数据
+        // 上传时收到的内容只在文件自上传完成后没有变化时使用，大小相同不代表内容相同
+        byte[] data;
+        if (received != null && received.data().length == fileSize
+            && received.modifiedTime() == attributes.lastModifiedTime().toMillis()) {
+            data = received.data();
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                try (FileLock lock = channel.tryLock(0L, Long.MAX_VALUE, true)) {
+                    if (lock == null) {
+                        throw new FileBusyException("File is being used by another process");
                     }
-                    throw e;
+                    data = readFully(channel, rules.maxFileSize());
                 }
             }
-        } catch (IOException e) {
-            // 重试前关闭文件通道
+        }
+        if (data == null) {
+            return rejectOverLimit(file, playerName, rules, attributes,
+                "file is larger than " + rules.maxFileSize() + " bytes");
+        }
+        
+        Inspection inspection = inspect(data, rules, rules.reportOnly());
+        if (rules.reportOnly()) {
+            reportImpact(file, playerName, inspection);
+        }
+        if (inspection.verdict() == VerdictCache.Verdict.CLEAN) {
+            MessageDigest digest = VerdictCache.newDigest();
+            return new Outcome(inspection.verdict(), data.length,
+                attributes.lastModifiedTime().toMillis(), digest.digest(data), true);
+        }
+        if (rules.reportOnly()) {
+            return Outcome.reported(inspection.verdict());
+        }
+        AnomalyPipeline.Report report = new AnomalyPipeline.Report(playerName, file,
+            inspection.verdict() == VerdictCache.Verdict.BANNED ? "banned" : "rewritten", inspection.reason(),
+            inspection.matchedKeyword(), inspection.removedKeys(), sha256Hex(data));
+        if (!handleAnomalousSchematic(file, attributes, data, inspection.cleaned(), report)) {
+            return null;
+        }
+        return Outcome.of(inspection.verdict());
+    }
+    
+    // 只根据内容得出的结论；REWRITTEN时cleaned是清理后的gzip文件内容
+    // keywordPath和removals只在要求记录路径时填写，此时不会写出文件，cleaned为null
+    record Inspection(VerdictCache.Verdict verdict, String reason, String matchedKeyword, String keywordPath,
+                      List<String> removedKeys, List<NbtTraversal.Removal> removals, byte[] cleaned) {
+        static final Inspection CLEAN = new Inspection(VerdictCache.Verdict.CLEAN, null, null, null, List.of(),
+            List.of(), null);
+        
+        static Inspection banned(String reason, String matchedKeyword, String keywordPath) {
+            return new Inspection(VerdictCache.Verdict.BANNED, reason, matchedKeyword, keywordPath, List.of(),
+                List.of(), null);
+        }
+    }
+    
+    static Inspection inspect(byte[] data, ScanRules rules) throws IOException {
+        return inspect(data, rules, false);
+    }
+    
+    // 检查已读入内存的schematic，不读写任何文件，服务器和离线命令行共用同一套规则
+    // recordPaths为true时记录每处删除和命中关键词的NBT路径
+    static Inspection inspect(byte[] data, ScanRules rules, boolean recordPaths) throws IOException {
+        if (!isGzipHeader(data)) {
+            throw new InvalidSchematicException("Invalid NBT file format");
+        }
+        
+        // gzip尾部的ISIZE记录了解压后的大小，在解压之前拒绝明显超限的文件
+        long declaredSize = gzipDeclaredSize(data);
+        if (declaredSize > rules.maxDecompressedSize()) {
+            return Inspection.banned("declares " + declaredSize + " uncompressed bytes", null, null);
+        }
+        
+        try {
+            return checkContent(rules, data, recordPaths);
+        } catch (SchematicLimitException e) {
+            // ISIZE只是模2^32的声明值，可能被伪造，实际解压量、嵌套深度和节点数同样受限
+            return Inspection.banned(e.getMessage(), null, null);
+        }
+    }
+    
+    private static Inspection checkContent(ScanRules rules, byte[] data, boolean recordPaths) throws IOException {
+        CompoundTag root;
+        StreamingNbtScanner.Verdict verdict = null;
+        String streamingKeyword = null;
+        
+        if (rules.useStreamingScanner()) {
+            // 先用流式扫描判断，干净的文件无需构建完整的NBT树
+            StreamingNbtScanner scanner = new StreamingNbtScanner(rules);
+            long start = System.nanoTime();
+            verdict = scanStreaming(data, rules.maxDecompressedSize(), scanner);
+            SchematicMetrics.recordMicros(SchematicMetrics.PARSE_TIME, start);
+            if (verdict == StreamingNbtScanner.Verdict.BANNED) {
+                streamingKeyword = scanner.getMatchedKeyword();
+                // 流式扫描不跟踪路径，需要路径时再遍历一次树；只有违禁文件需要这样做
+                if (!recordPaths) {
+                    return Inspection.banned("banned keyword", streamingKeyword, null);
+                }
+            } else if (verdict != StreamingNbtScanner.Verdict.NEEDS_REWRITE) {
+                return Inspection.CLEAN;
+            } else if (!recordPaths) {
+                // 已确认不含违禁关键词，直接在字节流上删除组件，不构建树也不重新序列化整个文件
+                return rewriteStreaming(rules, data);
+            }
+        }
+        
+        long start = System.nanoTime();
+        try (CountingInputStream counter = openDecompressed(data, rules.maxDecompressedSize())) {
+            root = NbtIo.read(new DataInputStream(counter), NbtAccounter.unlimitedHeap());
+            SchematicMetrics.BYTES_DECOMPRESSED.record(counter.count);
+        } catch (NbtAccounterException e) {
+            // 不走流式扫描时，NbtAccounter自带的512层限制先于NbtTraversal触发；配额不限，只可能是深度超限
+            // maxNbtDepth最大为512，超过512层必然也超过配置的深度
+            throw new SchematicLimitException("is nested deeper than " + rules.maxDepth() + " levels");
+        } catch (net.minecraft.nbt.ReportedNbtException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SchematicLimitException limit) {
+                throw limit;
+            }
+            if (cause instanceof NbtAccounterException) {
+                throw new SchematicLimitException("is nested deeper than " + rules.maxDepth() + " levels");
+            }
+            if (cause instanceof java.io.EOFException || 
+                cause instanceof java.util.zip.ZipException) {
+                throw new IOException("NBT file read error: " + cause.getMessage(), cause);
+            }
             throw e;
         }
+        SchematicMetrics.recordMicros(SchematicMetrics.PARSE_TIME, start);
         
-        if (root == null) return false;
+        if (root == null) {
+            throw new InvalidSchematicException("Schematic has no root tag");
+        }
         
-        boolean modified = false;
-        boolean bannedContent = false;
+        // 一遍完成组件清理和关键词检查，命中关键词后立即停止；流式扫描需要重写时已经确认不含违禁关键词
+        NbtTraversal traversal = new NbtTraversal(rules, verdict != StreamingNbtScanner.Verdict.NEEDS_REWRITE, recordPaths);
+        int keyword = traversal.run(root);
+        if (keyword >= 0) {
+            return Inspection.banned("banned keyword", rules.keywordMatcher().keyword(keyword), traversal.matchedPath());
+        }
+        if (streamingKeyword != null) {
+            return Inspection.banned("banned keyword", streamingKeyword, null);
+        }
+        if (traversal.isModified()) {
+            return new Inspection(VerdictCache.Verdict.REWRITTEN, "disallowed components", null, null,
+                List.copyOf(traversal.removedKeys()), List.copyOf(traversal.removals()),
+                recordPaths ? null : encode(root, rules.rewriteLevel()));
+        }
         
-        // 递归处理整个NBT结构
-        modified = processNbtRecursively(root);
-        bannedContent = containsBannedKeywords(server, root);
+        return Inspection.CLEAN;
+    }
+    
+    // 解压、复制和压缩在同一遍中完成，输出直接写入内存缓冲区
+    // deflate流不能按子树拼接，未改动的部分仍需重新压缩，压缩级别由配置决定
+    private static Inspection rewriteStreaming(ScanRules rules, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        StreamingNbtRewriter rewriter = new StreamingNbtRewriter(rules);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 1024);
+        try (CountingInputStream counter = openDecompressed(data, rules.maxDecompressedSize());
+             DataOutputStream output = openCompressed(bytes, rules.rewriteLevel())) {
+            rewriter.rewrite(new DataInputStream(counter), output);
+        }
+        SchematicMetrics.recordMicros(SchematicMetrics.REWRITE_TIME, start);
         
-        if (modified || bannedContent) {
-            handleAnomalousSchematic(server, file, playerName, root, modified, bannedContent);
-            return true;
+        if (!rewriter.isModified()) {
+            return Inspection.CLEAN;
         }
+        return new Inspection(VerdictCache.Verdict.REWRITTEN, "disallowed components", null, null,
+            List.copyOf(rewriter.removedKeys()), List.of(), bytes.toByteArray());
+    }
+    
+    // 关闭流式扫描时使用：把清理后的树按配置的压缩级别编码
+    private static byte[] encode(CompoundTag root, int level) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = openCompressed(bytes, level)) {
+            NbtIo.write(root, output);
+        }
+        SchematicMetrics.recordMicros(SchematicMetrics.REWRITE_TIME, start);
+        return bytes.toByteArray();
+    }
+    
+    private static DataOutputStream openCompressed(OutputStream out, int level) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new LeveledGzipOutputStream(out, level), 64 * 1024));
+    }
+    
+    // GZIPOutputStream没有提供设置压缩级别的构造函数
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(level);
+        }
+    }
+    
+    // 读取整个文件，超过maxSize时返回null
+    private static byte[] readFully(FileChannel channel, long maxSize) throws IOException {
+        long size = channel.size();
+        if (size > maxSize) {
+            return null;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new java.io.EOFException("Unexpected end of schematic file");
+            }
+        }
+        return buffer.array();
+    }
+    
+    // 魔数1F 8B、压缩方法8(deflate)，且保留标志位为0
+    private static boolean isGzipHeader(byte[] data) {
+        return data.length >= 18
+            && (data[0] & 0xFF) == 0x1F
+            && (data[1] & 0xFF) == 0x8B
+            && data[2] == 8
+            && (data[3] & 0xE0) == 0;
+    }
+    
+    // 最后4个字节是小端序的解压后大小
+    private static long gzipDeclaredSize(byte[] data) {
+        int end = data.length;
+        return (data[end - 4] & 0xFFL)
+            | (data[end - 3] & 0xFFL) << 8
+            | (data[end - 2] & 0xFFL) << 16
+            | (data[end - 1] & 0xFFL) << 24;
+    }
+    
+    // 文件太大没有读入内存，隔离区需要的哈希直接从文件流式计算
+    private static Outcome rejectOverLimit(Path file, String playerName, ScanRules rules,
+                                           BasicFileAttributes attributes, String reason) throws IOException {
+        if (rules.reportOnly()) {
+            reportImpact(file, playerName, Inspection.banned(reason, null, null));
+            return Outcome.reported(VerdictCache.Verdict.BANNED);
+        }
+        String sha256 = HexFormat.of().formatHex(VerdictCache.hashFile(file));
+        AnomalyPipeline.Report report = new AnomalyPipeline.Report(playerName, file, "banned", reason, null,
+            List.of(), sha256);
+        if (!handleAnomalousSchematic(file, attributes, null, null, report)) {
+            return null;
+        }
+        return Outcome.of(VerdictCache.Verdict.BANNED);
+    }
+    
+    private static StreamingNbtScanner.Verdict scanStreaming(byte[] data, long limit,
+                                                             StreamingNbtScanner scanner) throws IOException {
+        try (CountingInputStream counter = openDecompressed(data, limit)) {
+            StreamingNbtScanner.Verdict verdict = scanner.scan(new DataInputStream(counter));
+            SchematicMetrics.BYTES_DECOMPRESSED.record(counter.count);
+            return verdict;
+        }
+    }
+    
+    private static CountingInputStream openDecompressed(byte[] data, long limit) throws IOException {
+        return new CountingInputStream(new BufferedInputStream(
+            new GZIPInputStream(new ByteArrayInputStream(data))), limit);
+    }
+    
+    // 统计解压后读取的字节数，超过上限时立即停止解压
+    private static final class CountingInputStream extends FilterInputStream {
+        private final long limit;
+        long count;
         
-        return false;
+        CountingInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+        
+        private void add(long n) throws SchematicLimitException {
+            count += n;
+            if (count > limit) {
+                throw new SchematicLimitException("expands beyond " + limit + " bytes");
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) add(1);
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            int n = super.read(buffer, off, len);
+            if (n > 0) add(n);
+            return n;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            add(skipped);
+            return skipped;
+        }
     }
     
-    private static void handleAnomalousSchematic(MinecraftServer server, Path file, String playerName, 
-                                               CompoundTag root, boolean modified, boolean bannedContent) {
+    // 返回false表示处理失败，文件保持原样；original为已读入内存的原始内容，cleaned不为null时用它改写文件，否则清空文件
+    // attributes是读取内容之前的文件属性；备份在修改原文件之前完成，审计记录和通知交给后台线程
+    private static boolean handleAnomalousSchematic(Path file, BasicFileAttributes attributes, byte[] original,
+                                                  byte[] cleaned, AnomalyPipeline.Report report) {
+        AnomalyPipeline pipeline = SchematicFixMod.getAnomalyPipeline();
+        boolean backedUp = false;
         try {
-            Path anomalyDir = SchematicFixMod.ANOMALY_DIR.resolve(playerName);
-            Files.createDirectories(anomalyDir);
-            
-            Path backupFile = anomalyDir.resolve(file.getFileName());
-            Files.copy(file, backupFile, StandardCopyOption.REPLACE_EXISTING);
-            
-            String logMsg = String.format(
-                "[Create Bugfix] Found anomalous schematic by player '%s': %s",
-                playerName, file.getFileName()
-            );
-            server.execute(() -> {
-                server.getPlayerList().getServer().sendSystemMessage(Component.literal(logMsg));
-            });
-            
-            if (bannedContent) {
-                Files.write(file, new byte[0]);
-                return;
+            if (pipeline != null) {
+                pipeline.backup(file, original, report.sha256(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis());
+                backedUp = true;
+            } else {
+                Path anomalyDir = SchematicFixMod.ANOMALY_DIR.resolve(report.playerName());
+                Files.createDirectories(anomalyDir);
+                Path backupFile = anomalyDir.resolve(file.getFileName());
+                if (original != null) {
+                    Files.write(backupFile, original);
+                } else {
+                    Files.copy(file, backupFile, StandardCopyOption.REPLACE_EXISTING);
+                }
             }
             
-            if (modified) {
-                writeNbtFilesSafely(root, file);
+            // 都通过临时文件原子替换，原文件的硬链接备份保持原始内容
+            if (cleaned != null) {
+                writeNbtFilesSafely(cleaned, file);
+            } else {
+                truncateSafely(file);
             }
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to handle anomalous schematic: " + e.getMessage());
+            if (backedUp) {
+                pipeline.cancelBackup(report.sha256());
+            }
+            return false;
         }
+        
+        if (pipeline != null) {
+            pipeline.report(report);
+        } else {
+            LOGGER.log(Level.INFO, AnomalyPipeline.describe(report));
+        }
+        return true;
     }
     
-    private static boolean isValidNbtFile(Path file) {
-        try {
-            byte[] header = new byte[2];
-            try (var inputStream = Files.newInputStream(file)) {
-                int bytesRead = inputStream.read(header);
-                if (bytesRead < 2) return false;
-                
-                return (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B;
+    // 只报告模式：记录会做的修改，干净的文件清除之前的记录
+    private static void reportImpact(Path file, String playerName, Inspection inspection) {
+        ImpactReport impact = SchematicFixMod.getImpactReport();
+        if (impact == null) {
+            if (inspection.verdict() != VerdictCache.Verdict.CLEAN) {
+                LOGGER.log(Level.INFO, String.format("Report only: schematic %s of player %s would be %s (%s)",
+                    file.getFileName(), playerName, inspection.verdict() == VerdictCache.Verdict.BANNED ? "banned" : "rewritten",
+                    inspection.matchedKeyword() != null ? "banned keyword '" + inspection.matchedKeyword() + "'" : inspection.reason()));
             }
-        } catch (IOException e) {
-            return false;
+            return;
+        }
+        if (inspection.verdict() == VerdictCache.Verdict.CLEAN) {
+            impact.remove(file);
+        } else {
+            impact.record(file, playerName, inspection);
         }
     }
     
-    private static void writeNbtFilesSafely(CompoundTag root, Path file) throws IOException {
-        Path tempFile = file.getParent().resolve(file.getFileName() + ".tmp");
+    private static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(VerdictCache.newDigest().digest(data));
+    }
+    
+    // cleaned已经是压缩好的文件内容，这里只做写入和原子替换
+    private static void writeNbtFilesSafely(byte[] cleaned, Path file) throws IOException {
+        replaceAtomically(file, cleaned);
+    }
+    
+    private static void truncateSafely(Path file) throws IOException {
+        replaceAtomically(file, new byte[0]);
+    }
+    
+    // 临时文件名唯一，即使同一文件被其他进程同时改写也不会写到同一个临时文件
+    private static void replaceAtomically(Path file, byte[] content) throws IOException {
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
         
         try {
-            NbtIo.writeCompressed(root, tempFile);
+            Files.write(tempFile, content);
             Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             try {
@@ -182,48 +585,28 @@ public class SchematicProcessor {
         }
     }
 
-    private static boolean processNbtRecursively(Tag tag) {
-        if (tag instanceof CompoundTag compound) {
-            boolean modified = false;
-            
-            // 处理当前层的components标签
-            if (compound.contains("components", Tag.TAG_COMPOUND)) {
-                modified |= cleanComponents(compound.getCompound("components"));
-            }
-            
-            // 递归处理所有子标签
-            for (String key : compound.getAllKeys()) {
-                Tag child = compound.get(key);
-                modified |= processNbtRecursively(child);
-            }
-            return modified;
-        } 
-        else if (tag instanceof ListTag list) {
-            boolean modified = false;
-            for (Tag element : list) {
-                modified |= processNbtRecursively(element);
-            }
-            return modified;
+    // removedKeys不为null时记录被删除的组件名，用于审计日志
+    static boolean cleanComponents(CompoundTag components, ComponentAllowlist allowlist,
+                                   ComponentAllowlist.Context context, Collection<String> removedKeys) {
+        if (components == null || components.isEmpty()) {
+            return false;
         }
-        return false;
-    }
 
-    private static boolean cleanComponents(CompoundTag components) {
-        if (components == null || components.isEmpty()) {
+        // 绝大多数组件都在白名单中，先检查一遍，全部允许时不分配任何对象
+        boolean anyRemoved = false;
+        for (String key : components.getAllKeys()) {
+            if (!allowlist.isAllowed(key, context)) {
+                anyRemoved = true;
+                break;
+            }
+        }
+        if (!anyRemoved) {
             return false;
         }
 
         List<String> keysToRemove = new ArrayList<>();
         for (String key : components.getAllKeys()) {
-            boolean allowed = false;
-            for (String allowedTag : ALLOWED_TAGS) {
-                if (key.equals(allowedTag)) {
-                    allowed = true;
-                    break;
-                }
-            }
-            
-            if (!allowed) {
+            if (!allowlist.isAllowed(key, context)) {
                 keysToRemove.add(key);
             }
         }
@@ -231,39 +614,9 @@ public class SchematicProcessor {
         for (String key : keysToRemove) {
             components.remove(key);
         }
-        return !keysToRemove.isEmpty();
-    }
-
-    private static boolean containsBannedKeywords(MinecraftServer server, CompoundTag nbt) {
-        if (!Config.ENABLE_KEYWORD_CHECK.get()) return false;
-        
-        List<? extends String> bannedKeywords = Config.BANNED_KEYWORDS.get();
-        if (bannedKeywords.isEmpty()) return false;
-        
-        return containsBannedKeywordsRecursive(nbt, bannedKeywords);
-    }
-
-    private static boolean containsBannedKeywordsRecursive(Tag tag, List<? extends String> bannedKeywords) {
-        if (tag instanceof CompoundTag compound) {
-            for (String key : compound.getAllKeys()) {
-                if (containsBannedKeywordsRecursive(compound.get(key), bannedKeywords)) {
-                    return true;
-                }
-            }
-        } else if (tag instanceof ListTag list) {
-            for (Tag element : list) {
-                if (containsBannedKeywordsRecursive(element, bannedKeywords)) {
-                    return true;
-                }
-            }
-        } else if (tag instanceof StringTag stringTag) {
-            String value = stringTag.getAsString().toLowerCase();
-            for (String keyword : bannedKeywords) {
-                if (value.contains(keyword.toLowerCase())) {
-                    return true;
-                }
-            }
+        if (removedKeys != null) {
+            removedKeys.addAll(keysToRemove);
         }
-        return false;
+        return true;
     }
 }
\ No newline at end of file
@@ -1,48 +1,126 @@
 package com.example.schematicsfix;
 
+import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 import static java.nio.file.StandardWatchEventKinds.*;
 
 public class SchematicWatcher {
+    private static final Logger LOGGER = Logger.getLogger(SchematicWatcher.class.getName());
+
     private final MinecraftServer server;
     private final Path baseDir;
+    private final Path indexFile;
+    private final ProcessingPool processingPool;
     private WatchService watchService;
     private final Map<WatchKey, Path> watchKeys;
+    // 已知的目录，包括监听的和轮询的
+    private final Set<Path> registeredDirs = ConcurrentHashMap.newKeySet();
+    // 超出监听数量上限后改为按修改时间索引轮询的目录
+    private final Set<Path> polledDirs = ConcurrentHashMap.newKeySet();
+    private final DirectoryIndex index = new DirectoryIndex();
     private ExecutorService executor;
-    private ScheduledExecutorService delayedExecutor;
+    private ScheduledExecutorService reconciler;
+    private ScheduledExecutorService poller;
+    private int maxWatchedDirs;
+    // 系统拒绝了新的监听（如inotify的max_user_watches），在有目录被删除、释放名额之前不再尝试
+    private volatile boolean watchLimitReached;
+    private UploadDebouncer debouncer;
+    private FairScheduler scheduler;
     private volatile boolean running;
-    
-    // 用于跟踪文件的写入状态
-    private final Map<Path, Long> fileWriteTimes = new ConcurrentHashMap<>();
-    private static final long FILE_STABILIZATION_DELAY = 1000; // 1秒延迟
 
-    public SchematicWatcher(MinecraftServer server, Path baseDir) {
+    public SchematicWatcher(MinecraftServer server, Path baseDir, Path indexFile, ProcessingPool processingPool) {
         this.server = server;
         this.baseDir = baseDir;
-        this.watchKeys = new HashMap<>();
+        this.indexFile = indexFile;
+        this.processingPool = processingPool;
+        this.watchKeys = new ConcurrentHashMap<>();
     }
 
     public void startWatching() {
         try {
             this.watchService = FileSystems.getDefault().newWatchService();
             this.executor = Executors.newSingleThreadExecutor();
-            this.delayedExecutor = Executors.newScheduledThreadPool(2);
+            this.scheduler = new FairScheduler(processingPool, new FairScheduler.Handler() {
+                @Override
+                public void process(Path file, String playerName, long queuedAtNanos) {
+                    processFile(file, playerName, queuedAtNanos);
+                }
+
+                @Override
+                public void quarantine(Path file, String playerName) {
+                    quarantineFile(file, playerName);
+                }
+
+                // 对账时文件已按当前状态记入索引，不移除的话之后的对账会认为它没有变化
+                @Override
+                public void dropped(Path file) {
+                    index.remove(file);
+                }
+            }, Config.MAX_IN_FLIGHT.get(), Config.PLAYER_UPLOAD_RATE.get(), Config.PLAYER_UPLOAD_BURST.get(),
+                Config.OVER_LIMIT_ACTION.get());
+            FairScheduler activeScheduler = scheduler;
+            this.debouncer = new UploadDebouncer(Config.FILE_STABILIZATION_DELAY.get(), activeScheduler::submit);
             this.running = true;
+            scheduler.start();
+            debouncer.start();
+            UploadDebouncer activeDebouncer = debouncer;
+            SchematicMetrics.registerGauge("files_pending", "Files waiting to become stable", activeDebouncer::getPendingCount);
+            SchematicMetrics.registerGauge("files_scheduled", "Stable files waiting in per-player queues", activeScheduler::getQueuedCount);
+            SchematicMetrics.registerGauge("files_in_flight", "Watched files submitted for processing", activeScheduler::getInFlightCount);
+            SchematicMetrics.registerGauge("directories_polled", "Directories polled because the watch limit was reached", polledDirs::size);
+            this.maxWatchedDirs = Config.MAX_WATCHED_DIRECTORIES.get();
             
-            // 初始注册
-            registerDirectory(baseDir);
+            this.reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SchematicFix-Reconciler");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            
+            // 有上次停服时保存的索引时只注册监听，停服期间的变化交给后台任务找出；否则注册的同时建立文件索引
+            boolean restored = Config.STARTUP_CATCH_UP.get() && index.load(baseDir, indexFile);
+            registerInitial(!restored);
             
             // 开始监听线程
             executor.submit(this::watchLoop);
+            
+            int pollInterval = Config.POLL_INTERVAL.get();
+            if (pollInterval > 0) {
+                this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "SchematicFix-Poller");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                poller.scheduleWithFixedDelay(this::pollDirectories, pollInterval, pollInterval, TimeUnit.SECONDS);
+            }
+            if (restored) {
+                reconciler.execute(this::catchUp);
+            }
+            
+            // 定期对账，兜底处理任何丢失的事件
+            int interval = Config.RECONCILE_INTERVAL.get();
+            if (interval > 0) {
+                reconciler.scheduleWithFixedDelay(this::reconcileAll, interval, interval, TimeUnit.MINUTES);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -53,8 +131,21 @@ public class SchematicWatcher {
         if (executor != null) {
             executor.shutdownNow();
         }
-        if (delayedExecutor != null) {
-            delayedExecutor.shutdownNow();
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        SchematicMetrics.unregisterGauge("directories_polled");
+        if (debouncer != null) {
+            debouncer.stop();
+            SchematicMetrics.unregisterGauge("files_pending");
+        }
+        if (scheduler != null) {
+            scheduler.stop();
+            SchematicMetrics.unregisterGauge("files_scheduled");
+            SchematicMetrics.unregisterGauge("files_in_flight");
         }
         if (watchService != null) {
             try {
@@ -63,7 +154,13 @@ public class SchematicWatcher {
                 // Ignore
             }
         }
-        fileWriteTimes.clear();
+    }
+
+    // 工作线程停止后调用，尚未处理完的文件不会写入，下次启动时重新检查
+    public void saveIndex() {
+        if (watchService != null && Config.STARTUP_CATCH_UP.get()) {
+            index.save(baseDir, indexFile);
+        }
     }
 
     private void watchLoop() {
@@ -82,6 +179,9 @@ public class SchematicWatcher {
                 WatchEvent.Kind<?> kind = event.kind();
 
                 if (kind == OVERFLOW) {
+                    // 事件队列溢出，只重扫这个目录找出遗漏的文件
+                    LOGGER.log(Level.INFO, "Watch events overflowed for " + dir + ", rescanning directory");
+                    rescanDirectory(dir);
                     continue;
                 }
 
@@ -93,9 +193,10 @@ public class SchematicWatcher {
                 if (Files.isDirectory(child)) {
                     if (kind == ENTRY_CREATE) {
                         try {
-                            registerDirectory(child);
+                            // 注册前已写入新目录的文件不会产生事件，需要主动检查
+                            registerDirectory(child, true, true);
                         } catch (IOException e) {
-                            e.printStackTrace();
+                            LOGGER.log(Level.WARNING, "Failed to register " + child + ": " + e.getMessage());
                         }
                     }
                     continue;
@@ -106,75 +207,299 @@ public class SchematicWatcher {
                     String playerName = dir.getFileName().toString();
                     
                     if (kind == ENTRY_CREATE || kind == ENTRY_MODIFY) {
-                        // 记录文件写入时间
-                        fileWriteTimes.put(child, System.currentTimeMillis());
-                        
-                        // 延迟处理文件，确保文件写入完成
-                        delayedExecutor.schedule(() -> {
-                            processFileIfReady(child, playerName);
-                        }, FILE_STABILIZATION_DELAY, TimeUnit.MILLISECONDS);
+                        // 同一文件的连续事件会被合并，写入稳定后才处理
+                        debouncer.onEvent(child, playerName);
                     }
                 }
             }
 
+            // 所有监听都失效后也继续运行，之后新注册的目录仍会产生事件
             boolean valid = key.reset();
             if (!valid) {
                 watchKeys.remove(key);
-                if (watchKeys.isEmpty()) {
-                    break;
-                }
+                handleInvalidKey(dir);
             }
         }
     }
 
-    private void processFileIfReady(Path file, String playerName) {
-        if (!running || !Files.exists(file)) {
-            fileWriteTimes.remove(file);
+    // 在工作线程中运行，只有通知消息会回到服务器线程
+    private void processFile(Path file, String playerName, long queuedAtNanos) {
+        if (!running) return;
+
+        SchematicMetrics.recordMicros(SchematicMetrics.QUEUE_WAIT, queuedAtNanos);
+        SchematicProcessor.checkSchematicFile(file, playerName);
+        index.update(file);
+    }
+
+    // 超出上传速率且配置为QUARANTINE时，不检查直接移入异常目录；只报告模式下只记录，文件留在原处
+    private void quarantineFile(Path file, String playerName) {
+        if (ScanRules.current().reportOnly()) {
+            ImpactReport impact = SchematicFixMod.getImpactReport();
+            if (impact != null) {
+                impact.recordQuarantine(file, playerName, "upload rate limit exceeded");
+            } else {
+                LOGGER.log(Level.INFO, String.format("Report only: schematic %s of player %s would be quarantined (upload rate limit exceeded)",
+                    file.getFileName(), playerName));
+            }
             return;
         }
 
-        Long lastWriteTime = fileWriteTimes.get(file);
-        if (lastWriteTime == null) {
-            return;
+        try {
+            AnomalyPipeline pipeline = SchematicFixMod.getAnomalyPipeline();
+            if (pipeline != null) {
+                String sha256 = pipeline.getQuarantine().moveIn(file);
+                index.remove(file);
+                pipeline.report(new AnomalyPipeline.Report(playerName, file, "quarantined",
+                    "upload rate limit exceeded", null, List.of(), sha256));
+                return;
+            }
+
+            Path anomalyDir = SchematicFixMod.ANOMALY_DIR.resolve(playerName);
+            Files.createDirectories(anomalyDir);
+            Files.move(file, anomalyDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            index.remove(file);
+
+            String logMsg = String.format(
+                "[Create Bugfix] Player '%s' exceeded the schematic upload limit, quarantined: %s",
+                playerName, file.getFileName()
+            );
+            server.execute(SchematicMetrics.serverTask(() -> {
+                server.getPlayerList().getServer().sendSystemMessage(Component.literal(logMsg));
+            }));
+        } catch (NoSuchFileException e) {
+            index.remove(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to quarantine " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    // 监听目录失效：不在监听线程中处理，交给后台线程在目录仍存在时重新注册并对账，否则清理索引
+    private void handleInvalidKey(Path dir) {
+        if (!running) return;
+
+        try {
+            reconciler.execute(() -> {
+                if (!running) return;
+                if (Files.isDirectory(dir)) {
+                    try {
+                        registerDirectory(dir, true, true);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to re-register " + dir + ": " + e.getMessage());
+                    }
+                } else {
+                    forgetDirectory(dir);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 正在关闭
+        }
+    }
+
+    // 目录已被删除，释放的监听名额可以给轮询中的目录使用
+    private void forgetDirectory(Path dir) {
+        registeredDirs.removeIf(path -> path.startsWith(dir));
+        polledDirs.removeIf(path -> path.startsWith(dir));
+        index.removeDirectory(dir);
+        watchLimitReached = false;
+    }
+
+    // 轮询超出监听上限的目录，与修改时间索引对比找出变化的文件；有空余名额时改回事件监听
+    private void pollDirectories() {
+        for (Path dir : polledDirs) {
+            if (!running) return;
+            if (!Files.isDirectory(dir)) {
+                forgetDirectory(dir);
+                continue;
+            }
+            try {
+                if (tryWatch(dir)) {
+                    polledDirs.remove(dir);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to watch " + dir + ": " + e.getMessage());
+            }
+            rescanDirectory(dir);
+        }
+    }
+    
+    // 对比索引重扫单个目录，变化的文件交给防抖器，未注册的子目录补充注册，返回变化的文件数
+    private int rescanDirectory(Path dir) {
+        try {
+            List<Path> changed = index.reconcile(dir, true);
+            String playerName = dir.getFileName().toString();
+            for (Path file : changed) {
+                debouncer.onEvent(file, playerName);
+            }
+            
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    if (Files.isDirectory(child) && !registeredDirs.contains(child)) {
+                        registerDirectory(child, true, true);
+                    }
+                }
+            }
+            return changed.size();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to rescan " + dir + ": " + e.getMessage());
+            return 0;
         }
+    }
+    
+    private void reconcileAll() {
+        if (!running || !Files.isDirectory(baseDir)) return;
+        
+        try (Stream<Path> dirs = Files.walk(baseDir)) {
+            dirs.filter(Files::isDirectory).forEach(dir -> {
+                if (!running) return;
+                if (registeredDirs.contains(dir)) {
+                    rescanDirectory(dir);
+                } else {
+                    try {
+                        registerDirectory(dir, true, true);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to register " + dir + ": " + e.getMessage());
+                    }
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Reconciliation sweep failed: " + e.getMessage());
+        }
+    }
+
+    // 启动时与上次保存的索引对比，只处理停服期间新增或变化的文件，已删除的目录从索引中移除
+    private void catchUp() {
+        if (!running || !Files.isDirectory(baseDir)) return;
 
-        // 检查文件是否在延迟期间被再次修改
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastWriteTime < FILE_STABILIZATION_DELAY) {
-            // 文件仍在被修改，重新安排处理
-            delayedExecutor.schedule(() -> {
-                processFileIfReady(file, playerName);
-            }, FILE_STABILIZATION_DELAY, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        Set<Path> seen = new HashSet<>();
+        int changed = 0;
+        try (Stream<Path> dirs = Files.walk(baseDir)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                if (!running) return;
+                seen.add(dir);
+                changed += rescanDirectory(dir);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Startup catch-up scan failed: " + e.getMessage());
             return;
         }
+        index.retainDirectories(seen);
+        LOGGER.log(Level.INFO, String.format("Startup catch-up found %d new or changed schematics in %d directories (%d ms)",
+            changed, seen.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    // 启动时的注册：根目录在当前线程处理，各玩家目录的子树并行注册
+    // 注册本身由WatchService串行完成，并行主要节省列目录和读取文件属性的时间
+    private void registerInitial(boolean indexFiles) throws IOException {
+        if (!Files.isDirectory(baseDir)) return;
 
-        // 文件已稳定，提交到服务器线程处理
-        server.execute(() -> {
+        long start = System.nanoTime();
+        List<Path> children = addDirectory(baseDir, indexFiles, false);
+        int threads = Math.min(children.size(), ScanJob.defaultParallelism());
+        if (threads <= 1) {
+            for (Path child : children) {
+                registerDirectory(child, indexFiles, false);
+            }
+        } else {
+            ExecutorService registrar = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "SchematicFix-Register");
+                thread.setDaemon(true);
+                return thread;
+            });
             try {
-                SchematicProcessor.processSchematicFile(server, file, playerName);
+                List<Future<?>> futures = new ArrayList<>(children.size());
+                for (Path child : children) {
+                    futures.add(registrar.submit(() -> {
+                        registerDirectory(child, indexFiles, false);
+                        return null;
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        // 未能注册的目录由对账任务补上
+                        LOGGER.log(Level.WARNING, "Failed to register " + children.get(i) + ": " + e.getCause().getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
-                fileWriteTimes.remove(file);
+                registrar.shutdownNow();
             }
-        });
+        }
+        LOGGER.log(Level.INFO, String.format("Registered %d schematic directories (%d watched, %d polled) in %d ms",
+            registeredDirs.size(), watchKeys.size(), polledDirs.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
     }
 
-    private void registerDirectory(Path dir) throws IOException {
-        if (!Files.exists(dir)) return;
-        
-        // 注册新目录 - 监听创建和修改事件
-        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
-        watchKeys.put(key, dir);
-        
-        // 递归注册子目录
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
-            for (Path child : stream) {
-                if (Files.isDirectory(child)) {
-                    registerDirectory(child);
+    // indexFiles为false时只注册监听，索引已从文件中读取；dispatchExisting为false时只建立索引，不处理目录中已有的文件
+    private void registerDirectory(Path dir, boolean indexFiles, boolean dispatchExisting) throws IOException {
+        for (Path child : addDirectory(dir, indexFiles, dispatchExisting)) {
+            registerDirectory(child, indexFiles, dispatchExisting);
+        }
+    }
+
+    // 注册单个目录，返回它的子目录；目录已不存在时返回空列表
+    private List<Path> addDirectory(Path dir, boolean indexFiles, boolean dispatchExisting) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try {
+            // 监听创建和修改事件，没有名额时改为轮询
+            if (!tryWatch(dir)) {
+                polledDirs.add(dir);
+            }
+            registeredDirs.add(dir);
+
+            if (indexFiles) {
+                List<Path> changed = index.reconcile(dir, dispatchExisting);
+                if (dispatchExisting) {
+                    String playerName = dir.getFileName().toString();
+                    for (Path file : changed) {
+                        debouncer.onEvent(file, playerName);
+                    }
+                }
+            }
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    if (Files.isDirectory(child)) {
+                        children.add(child);
+                    }
                 }
             }
+        } catch (NoSuchFileException e) {
+            // 注册过程中目录被删除
+        }
+        return children;
+    }
+
+    // 返回是否注册了监听；达到配置的数量上限或系统的监听上限时返回false
+    private boolean tryWatch(Path dir) throws IOException {
+        if (watchLimitReached || (maxWatchedDirs > 0 && watchKeys.size() >= maxWatchedDirs)) {
+            return false;
+        }
+        try {
+            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            watchKeys.put(key, dir);
+            return true;
+        } catch (IOException e) {
+            if (!isWatchLimit(e)) throw e;
+            if (!watchLimitReached) {
+                watchLimitReached = true;
+                LOGGER.log(Level.WARNING, "Watch limit reached after " + watchKeys.size() + " directories (" + e.getMessage()
+                    + "), polling the remaining directories. Raise fs.inotify.max_user_watches to watch all of them");
+            }
+            return false;
         }
     }
 
+    // 不依赖异常消息，消息随JDK版本和语言环境变化
+    // Linux的WatchService只在inotify_add_watch返回ENOSPC（监听数量上限）时抛出普通IOException，
+    // 其他错误都按errno转换为带路径的FileSystemException，按普通注册错误上报，不改为轮询
+    private static boolean isWatchLimit(IOException e) {
+        return e.getClass() == IOException.class;
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> WatchEvent<T> cast(WatchEvent<?> event) {
         return (WatchEvent<T>) event;
@@ -0,0 +1,217 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.Tag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// 把解压后的NBT字节原样复制到输出，只丢弃components中不在白名单里的条目，不构建CompoundTag树
+// 数组、字符串和定长列表按原始字节整段复制；键的顺序和根标签名保持不变
+// 只用于StreamingNbtScanner判定为NEEDS_REWRITE的文件，深度、节点数和解压大小已经检查过
+final class StreamingNbtRewriter {
+    // 与NbtTraversal一致，审计日志只需要示例
+    private static final int MAX_REMOVED_KEYS = 64;
+    private static final char[] COMPONENTS_KEY = "components".toCharArray();
+
+    private final ComponentAllowlist allowlist;
+    private final int maxDepth;
+
+    private final byte[] copyBuffer = new byte[8192];
+    private byte[] byteBuffer = new byte[256];
+    private char[] charBuffer = new char[256];
+    private int byteLength;
+    private int charLength;
+    // charBuffer的CharSequence视图，每次读取键名后只调整limit
+    private CharBuffer charView = CharBuffer.wrap(charBuffer);
+
+    private DataInput input;
+    private DataOutput output;
+    private boolean modified;
+    private final Set<String> removedKeys = new LinkedHashSet<>();
+
+    StreamingNbtRewriter(ScanRules rules) {
+        this.allowlist = rules.allowlist();
+        this.maxDepth = rules.maxDepth();
+    }
+
+    // 上一次重写是否删除了组件
+    boolean isModified() {
+        return modified;
+    }
+
+    // 上一次重写删除的组件名，最多保留MAX_REMOVED_KEYS个
+    Set<String> removedKeys() {
+        return removedKeys;
+    }
+
+    void rewrite(DataInput input, DataOutput output) throws IOException {
+        this.input = input;
+        this.output = output;
+        this.modified = false;
+        removedKeys.clear();
+        try {
+            byte rootType = input.readByte();
+            if (rootType != Tag.TAG_COMPOUND) {
+                throw new InvalidSchematicException("Root tag must be a compound, got type " + rootType);
+            }
+            output.writeByte(rootType);
+            copyString(true);
+            copyCompound(0, true, ComponentAllowlist.Position.ROOT);
+        } finally {
+            this.input = null;
+            this.output = null;
+        }
+    }
+
+    // write为false时只跳过字节（被删除的组件内容）
+    private void copyCompound(int depth, boolean write, ComponentAllowlist.Position position) throws IOException {
+        checkDepth(depth);
+        while (true) {
+            byte type = input.readByte();
+            if (write) output.writeByte(type);
+            if (type == Tag.TAG_END) return;
+
+            if (!write) {
+                copyString(false);
+                copyPayload(type, depth + 1, false, ComponentAllowlist.Position.NESTED);
+                continue;
+            }
+            readName();
+            writeName();
+            if (type == Tag.TAG_COMPOUND && matches(COMPONENTS_KEY)) {
+                copyComponents(depth + 1, position.componentsContext());
+            } else {
+                copyPayload(type, depth + 1, true, position.child(charView));
+            }
+        }
+    }
+
+    private void copyComponents(int depth, ComponentAllowlist.Context context) throws IOException {
+        checkDepth(depth);
+        while (true) {
+            byte type = input.readByte();
+            if (type == Tag.TAG_END) {
+                output.writeByte(type);
+                return;
+            }
+
+            readName();
+            boolean allowed = allowlist.isAllowed(charView, context);
+            if (allowed) {
+                output.writeByte(type);
+                writeName();
+            } else {
+                modified = true;
+                if (removedKeys.size() < MAX_REMOVED_KEYS) {
+                    removedKeys.add(new String(charBuffer, 0, charLength));
+                }
+            }
+            // 保留的组件内部同样可能嵌套带components的物品
+            copyPayload(type, depth + 1, allowed, ComponentAllowlist.Position.NESTED);
+        }
+    }
+
+    private void copyList(int depth, boolean write, ComponentAllowlist.Position position) throws IOException {
+        checkDepth(depth);
+        byte elementType = input.readByte();
+        int length = input.readInt();
+        if (length < 0) {
+            throw new InvalidSchematicException("Negative list length: " + length);
+        }
+        if (write) {
+            output.writeByte(elementType);
+            output.writeInt(length);
+        }
+
+        int fixedSize = StreamingNbtScanner.fixedPayloadSize(elementType);
+        if (fixedSize > 0) {
+            copyBytes((long) fixedSize * length, write);
+            return;
+        }
+
+        ComponentAllowlist.Position elementPosition = position.element();
+        for (int i = 0; i < length; i++) {
+            copyPayload(elementType, depth + 1, write, elementPosition);
+        }
+    }
+
+    private void copyPayload(byte type, int depth, boolean write, ComponentAllowlist.Position position) throws IOException {
+        switch (type) {
+            case Tag.TAG_STRING -> copyString(write);
+            case Tag.TAG_COMPOUND -> copyCompound(depth, write, position);
+            case Tag.TAG_LIST -> copyList(depth, write, position);
+            case Tag.TAG_BYTE_ARRAY -> copyBytes(copyArrayLength(write), write);
+            case Tag.TAG_INT_ARRAY -> copyBytes(copyArrayLength(write) * 4L, write);
+            case Tag.TAG_LONG_ARRAY -> copyBytes(copyArrayLength(write) * 8L, write);
+            default -> {
+                int fixedSize = StreamingNbtScanner.fixedPayloadSize(type);
+                if (fixedSize <= 0) {
+                    throw new InvalidSchematicException("Invalid tag type: " + type);
+                }
+                copyBytes(fixedSize, write);
+            }
+        }
+    }
+
+    private int copyArrayLength(boolean write) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new InvalidSchematicException("Negative array length: " + length);
+        }
+        if (write) output.writeInt(length);
+        return length;
+    }
+
+    private void checkDepth(int depth) throws SchematicLimitException {
+        if (depth > maxDepth) {
+            throw new SchematicLimitException("is nested deeper than " + maxDepth + " levels");
+        }
+    }
+
+    private boolean matches(char[] expected) {
+        if (expected.length != charLength) return false;
+        for (int i = 0; i < charLength; i++) {
+            if (charBuffer[i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    // 读取键名的原始字节并解码到复用的缓冲区，写出时直接使用原始字节
+    private void readName() throws IOException {
+        int length = input.readUnsignedShort();
+        if (byteBuffer.length < length) {
+            byteBuffer = new byte[Math.max(length, byteBuffer.length * 2)];
+            charBuffer = new char[byteBuffer.length];
+            charView = CharBuffer.wrap(charBuffer);
+        }
+        input.readFully(byteBuffer, 0, length);
+        byteLength = length;
+        charLength = StreamingNbtScanner.decode(byteBuffer, length, charBuffer);
+        charView.limit(charLength);
+    }
+
+    private void writeName() throws IOException {
+        output.writeShort(byteLength);
+        output.write(byteBuffer, 0, byteLength);
+    }
+
+    // 字符串内容不需要解码
+    private void copyString(boolean write) throws IOException {
+        int length = input.readUnsignedShort();
+        if (write) output.writeShort(length);
+        copyBytes(length, write);
+    }
+
+    private void copyBytes(long bytes, boolean write) throws IOException {
+        while (bytes > 0) {
+            int chunk = (int) Math.min(bytes, copyBuffer.length);
+            input.readFully(copyBuffer, 0, chunk);
+            if (write) output.write(copyBuffer, 0, chunk);
+            bytes -= chunk;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.Tag;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.CharBuffer;
+
+// 单遍流式扫描解压后的NBT字节，不构建CompoundTag树
+// 只有确实需要重写的文件才会再完整读取一次
+public class StreamingNbtScanner {
+    public enum Verdict {
+        CLEAN,
+        NEEDS_REWRITE,
+        BANNED
+    }
+
+    private static final char[] COMPONENTS_KEY = "components".toCharArray();
+
+    private final ComponentAllowlist allowlist;
+    private final KeywordMatcher keywordMatcher;
+    private final int maxDepth;
+    private final int maxNodes;
+
+    private byte[] byteBuffer = new byte[256];
+    private char[] charBuffer = new char[256];
+    private int charLength;
+    // charBuffer的CharSequence视图，每次读取字符串后只调整limit，不分配新对象
+    private CharBuffer charView = CharBuffer.wrap(charBuffer);
+
+    private DataInput input;
+    private long nodes;
+    private boolean needsRewrite;
+    private boolean banned;
+    private String matchedKeyword;
+
+    public StreamingNbtScanner(ScanRules rules) {
+        this.allowlist = rules.allowlist();
+        this.keywordMatcher = rules.keywordMatcher();
+        this.maxDepth = rules.maxDepth();
+        this.maxNodes = rules.maxNodes();
+    }
+
+    // 最近一次扫描命中的违禁关键词
+    public String getMatchedKeyword() {
+        return matchedKeyword;
+    }
+
+    public Verdict scan(DataInput input) throws IOException {
+        this.input = input;
+        this.needsRewrite = false;
+        this.banned = false;
+        this.matchedKeyword = null;
+        this.nodes = 0;
+        try {
+            byte rootType = input.readByte();
+            if (rootType != Tag.TAG_COMPOUND) {
+                throw new InvalidSchematicException("Root tag must be a compound, got type " + rootType);
+            }
+            skipString();
+            countNodes(1);
+            scanCompound(0, true, ComponentAllowlist.Position.ROOT);
+        } finally {
+            this.input = null;
+        }
+
+        if (banned) return Verdict.BANNED;
+        return needsRewrite ? Verdict.NEEDS_REWRITE : Verdict.CLEAN;
+    }
+
+    // inspect为false时只跳过字节（例如将被删除的组件内容）
+    private void scanCompound(int depth, boolean inspect, ComponentAllowlist.Position position) throws IOException {
+        checkDepth(depth);
+        while (!banned) {
+            byte type = input.readByte();
+            if (type == Tag.TAG_END) return;
+
+            countNodes(1);
+            readString();
+            if (inspect && type == Tag.TAG_COMPOUND && matches(COMPONENTS_KEY)) {
+                scanComponents(depth + 1, position.componentsContext());
+            } else {
+                scanPayload(type, depth + 1, inspect, position.child(charView));
+            }
+        }
+    }
+
+    private void scanComponents(int depth, ComponentAllowlist.Context context) throws IOException {
+        checkDepth(depth);
+        while (!banned) {
+            byte type = input.readByte();
+            if (type == Tag.TAG_END) return;
+
+            countNodes(1);
+            readString();
+            boolean allowed = allowlist.isAllowed(charView, context);
+            if (!allowed) {
+                needsRewrite = true;
+            }
+            // 将被删除的组件不参与关键词检查，与树遍历模式保持一致
+            scanPayload(type, depth + 1, allowed, ComponentAllowlist.Position.NESTED);
+        }
+    }
+
+    private void scanList(int depth, boolean inspect, ComponentAllowlist.Position position) throws IOException {
+        checkDepth(depth);
+        byte elementType = input.readByte();
+        int length = input.readInt();
+        if (length < 0) {
+            throw new InvalidSchematicException("Negative list length: " + length);
+        }
+        if (elementType == Tag.TAG_END && length > 0) {
+            throw new InvalidSchematicException("Missing type on list tag");
+        }
+        countNodes(length);
+
+        int fixedSize = fixedPayloadSize(elementType);
+        if (fixedSize > 0) {
+            skipFully((long) fixedSize * length);
+            return;
+        }
+
+        ComponentAllowlist.Position elementPosition = position.element();
+        for (int i = 0; i < length && !banned; i++) {
+            scanPayload(elementType, depth + 1, inspect, elementPosition);
+        }
+    }
+
+    private void scanPayload(byte type, int depth, boolean inspect, ComponentAllowlist.Position position) throws IOException {
+        switch (type) {
+            case Tag.TAG_STRING -> {
+                if (inspect && keywordMatcher != null) {
+                    readString();
+                    int keyword = keywordMatcher.match(charBuffer, 0, charLength);
+                    if (keyword >= 0) {
+                        banned = true;
+                        matchedKeyword = keywordMatcher.keyword(keyword);
+                    }
+                } else {
+                    skipString();
+                }
+            }
+            case Tag.TAG_COMPOUND -> scanCompound(depth, inspect, position);
+            case Tag.TAG_LIST -> scanList(depth, inspect, position);
+            case Tag.TAG_BYTE_ARRAY -> skipFully(readArrayLength());
+            case Tag.TAG_INT_ARRAY -> skipFully(readArrayLength() * 4L);
+            case Tag.TAG_LONG_ARRAY -> skipFully(readArrayLength() * 8L);
+            default -> {
+                int fixedSize = fixedPayloadSize(type);
+                if (fixedSize <= 0) {
+                    throw new InvalidSchematicException("Invalid tag type: " + type);
+                }
+                skipFully(fixedSize);
+            }
+        }
+    }
+
+    static int fixedPayloadSize(byte type) {
+        return switch (type) {
+            case Tag.TAG_BYTE -> 1;
+            case Tag.TAG_SHORT -> 2;
+            case Tag.TAG_INT, Tag.TAG_FLOAT -> 4;
+            case Tag.TAG_LONG, Tag.TAG_DOUBLE -> 8;
+            default -> 0;
+        };
+    }
+
+    private int readArrayLength() throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new InvalidSchematicException("Negative array length: " + length);
+        }
+        return length;
+    }
+
+    private void checkDepth(int depth) throws SchematicLimitException {
+        if (depth > maxDepth) {
+            throw new SchematicLimitException("is nested deeper than " + maxDepth + " levels");
+        }
+    }
+
+    private void countNodes(int count) throws SchematicLimitException {
+        nodes += count;
+        if (nodes > maxNodes) {
+            throw new SchematicLimitException("contains more than " + maxNodes + " tags");
+        }
+    }
+
+    private boolean matches(char[] expected) {
+        if (expected.length != charLength) return false;
+        for (int i = 0; i < charLength; i++) {
+            if (charBuffer[i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    // 读取Modified UTF-8字符串到复用的缓冲区，不创建String对象
+    private void readString() throws IOException {
+        int length = input.readUnsignedShort();
+        if (byteBuffer.length < length) {
+            byteBuffer = new byte[Math.max(length, byteBuffer.length * 2)];
+            charBuffer = new char[byteBuffer.length];
+            charView = CharBuffer.wrap(charBuffer);
+        }
+        input.readFully(byteBuffer, 0, length);
+
+        charLength = decode(byteBuffer, length, charBuffer);
+        charView.limit(charLength);
+    }
+
+    // 把Modified UTF-8解码到chars，返回字符数；chars的长度不能小于length
+    static int decode(byte[] bytes, int length, char[] chars) throws UTFDataFormatException {
+        int count = 0;
+        int i = 0;
+        while (i < length) {
+            int c = bytes[i] & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+                i++;
+            } else if ((c & 0xE0) == 0xC0) {
+                if (i + 1 >= length) throw new UTFDataFormatException("Malformed string in NBT");
+                chars[count++] = (char) (((c & 0x1F) << 6) | (bytes[i + 1] & 0x3F));
+                i += 2;
+            } else if ((c & 0xF0) == 0xE0) {
+                if (i + 2 >= length) throw new UTFDataFormatException("Malformed string in NBT");
+                chars[count++] = (char) (((c & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F));
+                i += 3;
+            } else {
+                throw new UTFDataFormatException("Malformed string in NBT");
+            }
+        }
+        return count;
+    }
+
+    private void skipString() throws IOException {
+        skipFully(input.readUnsignedShort());
+    }
+
+    private void skipFully(long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = input.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes可能返回0，读一个字节以确认是否已到达文件末尾
+                input.readByte();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
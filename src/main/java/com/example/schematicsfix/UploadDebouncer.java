@@ -0,0 +1,176 @@
+package com.example.schematicsfix;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 合并同一文件的连续事件：每个路径最多只有一个待处理条目，新事件只会推迟它的截止时间
+public class UploadDebouncer {
+    public interface Dispatcher {
+        // 文件已稳定，交给调度器排队处理
+        void dispatch(Path file, String playerName);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(UploadDebouncer.class.getName());
+
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    private final DelayQueue<Timer> timers = new DelayQueue<>();
+    private final long quietPeriodNanos;
+    private final Dispatcher dispatcher;
+    private volatile boolean running;
+    private Thread thread;
+
+    public UploadDebouncer(long quietPeriodMs, Dispatcher dispatcher) {
+        this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriodMs);
+        this.dispatcher = dispatcher;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::dispatchLoop, "SchematicFix-Debouncer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        timers.clear();
+        pending.clear();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void onEvent(Path file, String playerName) {
+        long deadline = System.nanoTime() + quietPeriodNanos;
+        pending.compute(file, (path, existing) -> {
+            if (existing != null) {
+                // 已有条目，只推迟截止时间，不新增定时任务
+                existing.deadline = deadline;
+                existing.events++;
+                return existing;
+            }
+            Pending created = new Pending(path, playerName, deadline);
+            SchematicMetrics.FILES_QUEUED.increment();
+            timers.add(new Timer(created, deadline));
+            return created;
+        });
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            Timer timer;
+            try {
+                timer = timers.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            Pending entry = timer.entry;
+            if (pending.get(entry.file) != entry) continue;
+
+            // 等待期间又有新事件，按新的截止时间重新排队
+            long deadline = entry.deadline;
+            if (deadline - System.nanoTime() > 0) {
+                timers.add(new Timer(entry, deadline));
+                continue;
+            }
+
+            int events = entry.events;
+            if (!isStable(entry)) {
+                continue;
+            }
+
+            // 检查期间到达的事件可能对应一次新的写入，只有事件数未变时才移除条目，否则按新的截止时间重新排队
+            if (pending.computeIfPresent(entry.file, (path, current) ->
+                    current == entry && current.events == events ? null : current) != null) {
+                timers.add(new Timer(entry, entry.deadline));
+                continue;
+            }
+            try {
+                dispatcher.dispatch(entry.file, entry.playerName);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to dispatch schematic " + entry.file.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // 用文件大小和修改时间判断写入是否已经结束，未稳定时重新排队
+    private boolean isStable(Pending entry) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(entry.file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            pending.remove(entry.file, entry);
+            return false;
+        } catch (IOException e) {
+            pending.remove(entry.file, entry);
+            LOGGER.log(Level.FINE, "Cannot stat " + entry.file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+
+        long size = attributes.size();
+        long modifiedMillis = attributes.lastModifiedTime().toMillis();
+        long quietMillis = TimeUnit.NANOSECONDS.toMillis(quietPeriodNanos);
+        long sinceModified = System.currentTimeMillis() - modifiedMillis;
+        boolean sizeChanged = entry.lastSize >= 0 && entry.lastSize != size;
+
+        entry.lastSize = size;
+        if (sizeChanged || sinceModified < quietMillis) {
+            long wait = sizeChanged ? quietMillis : Math.max(1, quietMillis - sinceModified);
+            entry.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+            timers.add(new Timer(entry, entry.deadline));
+            return false;
+        }
+        return true;
+    }
+
+    private static final class Pending {
+        final Path file;
+        final String playerName;
+        volatile long deadline;
+        // 只在pending.compute中修改，与移除条目互斥
+        volatile int events;
+        long lastSize = -1;
+
+        Pending(Path file, String playerName, long deadline) {
+            this.file = file;
+            this.playerName = playerName;
+            this.deadline = deadline;
+        }
+    }
+
+    // 队列中的节点不可变，截止时间推迟后由调度线程惰性地重新入队
+    private static final class Timer implements Delayed {
+        final Pending entry;
+        final long dueAt;
+
+        Timer(Pending entry, long dueAt) {
+            this.entry = entry;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Timer) other).dueAt);
+        }
+    }
+}
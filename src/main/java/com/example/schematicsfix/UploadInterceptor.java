@@ -0,0 +1,165 @@
+package com.example.schematicsfix;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 可选的上传拦截：通过mixin在Create接收上传数据时同时把内容保存在内存中，数据到达时只检查大小和gzip头
+// 上传完成时拦下Create的收尾（关闭文件并把写好的蓝图交给蓝图桌），由工作线程检查，得出结论后回到服务器线程再执行收尾，
+// 检查结束之前玩家拿不到这张蓝图；检查失败时不放行，Create会按空闲超时取消这次上传并删除文件
+// 同名文件重新上传时，之前发出的蓝图在检查结束前仍指向这个文件，这种情况只能靠监听器之后的检查
+// 未安装兼容版本的Create或未开启时不做任何事，监听器始终作为兜底
+public final class UploadInterceptor {
+    private static final Logger LOGGER = Logger.getLogger(UploadInterceptor.class.getName());
+    // Create会清理长时间没有数据的上传，这里只需保证残留的缓冲区不会一直占用内存
+    private static final long STALE_UPLOAD_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    // 玩家名/文件名 -> 已收到的数据
+    private static final Map<String, Upload> UPLOADS = new ConcurrentHashMap<>();
+    // 正在放行的上传，Create的收尾重新进入handleFinishedUpload时不再拦截；只在服务器线程上读写
+    private static String releasing;
+
+    // 上传时收到的内容和上传完成时文件的修改时间，文件的大小和修改时间都没有变化时才代替文件内容使用
+    record Received(byte[] data, long modifiedTime) {}
+
+    private static final class Upload {
+        byte[] data;
+        int size;
+        // 超过大小上限或不是gzip数据，不再缓存，检查时读取文件
+        boolean rejected;
+        long lastWrite = System.nanoTime();
+
+        Upload(long expectedSize) {
+            data = new byte[(int) Math.max(1, Math.min(expectedSize, INITIAL_CAPACITY))];
+        }
+    }
+
+    private UploadInterceptor() {
+    }
+
+    public static boolean isEnabled() {
+        return Config.INTERCEPT_UPLOADS.get();
+    }
+
+    public static void onNewUpload(String playerName, String schematic, long expectedSize) {
+        if (!isEnabled()) return;
+
+        long now = System.nanoTime();
+        UPLOADS.values().removeIf(upload -> now - upload.lastWrite > STALE_UPLOAD_NANOS);
+        Upload upload = new Upload(expectedSize);
+        upload.rejected = expectedSize > ScanRules.current().maxFileSize();
+        UPLOADS.put(key(playerName, schematic), upload);
+    }
+
+    // 数据到达时就检查大小和gzip头，不合格的上传不再占用内存
+    public static void onWrite(String playerName, String schematic, byte[] chunk) {
+        if (!isEnabled()) return;
+
+        Upload upload = UPLOADS.computeIfAbsent(key(playerName, schematic), key -> new Upload(chunk.length));
+        if (upload.rejected) return;
+
+        upload.lastWrite = System.nanoTime();
+        long newSize = (long) upload.size + chunk.length;
+        if (newSize > ScanRules.current().maxFileSize()) {
+            reject(upload);
+            return;
+        }
+        if (newSize > upload.data.length) {
+            upload.data = Arrays.copyOf(upload.data, (int) Math.min(ScanRules.current().maxFileSize(),
+                Math.max(newSize, upload.data.length * 2L)));
+        }
+        System.arraycopy(chunk, 0, upload.data, upload.size, chunk.length);
+        upload.size = (int) newSize;
+
+        if (upload.size >= 2 && ((upload.data[0] & 0xFF) != 0x1F || (upload.data[1] & 0xFF) != 0x8B)) {
+            reject(upload);
+        }
+    }
+
+    // 在Create的handleFinishedUpload开头调用（服务器线程），此时数据都已写入文件，只是文件还没有关闭
+    // 返回true时调用方取消Create的收尾，检查得出结论后在服务器线程上运行finish重新执行它
+    // 玩家在等待这次检查，不经过按玩家限速的队列；监听器随后对同一文件的检查会命中缓存
+    public static boolean holdFinished(MinecraftServer server, String playerName, String schematic, Runnable finish) {
+        String key = key(playerName, schematic);
+        if (key.equals(releasing)) return false;
+
+        Upload upload = UPLOADS.remove(key);
+        if (upload == null || !isEnabled()) return false;
+        ProcessingPool pool = SchematicFixMod.getProcessingPool();
+        if (pool == null) return false;
+
+        Path playerDir = SchematicFixMod.UPLOADED_DIR.resolve(playerName).normalize();
+        Path file = playerDir.resolve(schematic).normalize();
+        if (!file.startsWith(playerDir)) return false;
+
+        long start = System.nanoTime();
+        try {
+            Received received = received(upload, file);
+            boolean accepted = pool.submit(() -> {
+                SchematicMetrics.recordMicros(SchematicMetrics.QUEUE_WAIT, start);
+                VerdictCache.Verdict verdict = SchematicProcessor.checkUploadedSchematic(file, playerName, received);
+                if (verdict == null) {
+                    LOGGER.log(Level.WARNING, String.format("Schematic upload %s of player %s could not be checked, not handing it out",
+                        file.getFileName(), playerName));
+                    return;
+                }
+                server.execute(SchematicMetrics.serverTask(() -> release(key, finish)));
+            });
+            if (accepted) {
+                SchematicMetrics.FILES_QUEUED.increment();
+            } else {
+                LOGGER.log(Level.WARNING, String.format("Schematic upload %s of player %s dropped, worker queue is full",
+                    file.getFileName(), playerName));
+            }
+            return true;
+        } finally {
+            SchematicMetrics.recordMicros(SchematicMetrics.SERVER_THREAD_TIME, start);
+        }
+    }
+
+    public static void clear() {
+        UPLOADS.clear();
+    }
+
+    private static void release(String key, Runnable finish) {
+        releasing = key;
+        try {
+            finish.run();
+        } finally {
+            releasing = null;
+        }
+    }
+
+    // 只在缓存了完整内容、且与磁盘上的文件大小相同时返回；Create没有写入的数据块会让两者的大小不同
+    private static Received received(Upload upload, Path file) {
+        if (upload.rejected) return null;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.size() != upload.size) return null;
+            byte[] data = upload.size == upload.data.length ? upload.data : Arrays.copyOf(upload.data, upload.size);
+            return new Received(data, attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void reject(Upload upload) {
+        upload.rejected = true;
+        upload.data = null;
+        upload.size = 0;
+    }
+
+    private static String key(String playerName, String schematic) {
+        return playerName + "/" + schematic;
+    }
+}
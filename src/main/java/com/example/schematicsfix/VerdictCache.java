@@ -0,0 +1,234 @@
+package com.example.schematicsfix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// 按文件内容记录检查结论，未变化的文件不再重复解析
+public class VerdictCache {
+    public enum Verdict {
+        CLEAN,
+        REWRITTEN,
+        BANNED
+    }
+
+    private record Entry(long size, long modifiedTime, byte[] hash, Verdict verdict, long fingerprint) {}
+
+    private static final int MAGIC = 0x53465643; // "SFVC"
+    private static final int VERSION = 1;
+    private static final Logger LOGGER = Logger.getLogger(VerdictCache.class.getName());
+
+    private final Path baseDir;
+    private final Path cacheFile;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public VerdictCache(Path baseDir, Path cacheFile, int maxEntries) {
+        this.baseDir = baseDir;
+        this.cacheFile = cacheFile;
+        this.maxEntries = maxEntries;
+        // accessOrder=true，超出容量时淘汰最久未使用的条目
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > VerdictCache.this.maxEntries;
+            }
+        };
+    }
+
+    // 当前规则的指纹，规则变化后所有旧结论自动失效
+    public static long fingerprint(boolean keywordCheck, List<? extends String> bannedKeywords,
+                                   List<String> allowedComponents,
+                                   long maxFileSize, long maxDecompressedSize, int maxDepth, int maxNodes) {
+        long hash = keywordCheck ? 1 : 0;
+        for (String keyword : bannedKeywords) {
+            hash = hash * 31 + keyword.toLowerCase().hashCode();
+        }
+        hash = hash * 131 + 7;
+        for (String rule : allowedComponents) {
+            hash = hash * 31 + rule.hashCode();
+        }
+        hash = hash * 31 + maxFileSize;
+        hash = hash * 31 + maxDecompressedSize;
+        hash = hash * 31 + maxDepth;
+        hash = hash * 31 + maxNodes;
+        return hash;
+    }
+
+    // 返回缓存的结论，文件变化或规则变化时返回null
+    public Verdict lookup(Path file, long fingerprint) throws IOException {
+        String key = keyOf(file);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.fingerprint() != fingerprint) {
+            return null;
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modifiedTime = attributes.lastModifiedTime().toMillis();
+        if (size != entry.size()) {
+            return null;
+        }
+        if (modifiedTime == entry.modifiedTime()) {
+            return entry.verdict();
+        }
+
+        // 大小相同但修改时间变化，比较内容哈希
+        byte[] hash = hashFile(file);
+        if (!Arrays.equals(hash, entry.hash())) {
+            return null;
+        }
+        synchronized (this) {
+            entries.put(key, new Entry(size, modifiedTime, hash, entry.verdict(), fingerprint));
+        }
+        return entry.verdict();
+    }
+
+    public void record(Path file, Verdict verdict, long fingerprint) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            byte[] hash = hashFile(file);
+            Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), hash, verdict, fingerprint);
+            synchronized (this) {
+                entries.put(keyOf(file), entry);
+            }
+        } catch (NoSuchFileException e) {
+            invalidate(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to record verdict for " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    // 调用方已经在读取文件时得到了属性和内容哈希，直接记录而不再读取文件
+    public void record(Path file, Verdict verdict, long fingerprint, long size, long modifiedTime, byte[] hash) {
+        Entry entry = new Entry(size, modifiedTime, hash, verdict, fingerprint);
+        synchronized (this) {
+            entries.put(keyOf(file), entry);
+        }
+    }
+
+    public synchronized void invalidate(Path file) {
+        entries.remove(keyOf(file));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void load() {
+        if (!Files.exists(cacheFile)) return;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(cacheFile))))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                LOGGER.log(Level.WARNING, "Ignoring verdict cache with unknown format");
+                return;
+            }
+
+            Verdict[] verdicts = Verdict.values();
+            int count = input.readInt();
+            synchronized (this) {
+                entries.clear();
+                for (int i = 0; i < count; i++) {
+                    String key = input.readUTF();
+                    long size = input.readLong();
+                    long modifiedTime = input.readLong();
+                    byte[] hash = new byte[input.readUnsignedByte()];
+                    input.readFully(hash);
+                    Verdict verdict = verdicts[input.readUnsignedByte()];
+                    long fingerprint = input.readLong();
+                    entries.put(key, new Entry(size, modifiedTime, hash, verdict, fingerprint));
+                }
+            }
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            LOGGER.log(Level.WARNING, "Failed to load verdict cache: " + e.getMessage());
+            synchronized (this) {
+                entries.clear();
+            }
+        }
+    }
+
+    public void save() {
+        Map<String, Entry> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+        }
+
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(snapshot.size());
+                // 按LRU顺序写入，重新加载后淘汰顺序不变
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    output.writeUTF(e.getKey());
+                    output.writeLong(entry.size());
+                    output.writeLong(entry.modifiedTime());
+                    output.writeByte(entry.hash().length);
+                    output.write(entry.hash());
+                    output.writeByte(entry.verdict().ordinal());
+                    output.writeLong(entry.fingerprint());
+                }
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save verdict cache: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private String keyOf(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        Path base = baseDir.toAbsolutePath().normalize();
+        String key = normalized.startsWith(base) ? base.relativize(normalized).toString() : normalized.toString();
+        return key.replace('\\', '/');
+    }
+
+    static byte[] hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.schematicsfix.commands;
+
+import com.example.schematicsfix.DeadLetterQueue;
+import com.example.schematicsfix.ProcessingPool;
+import com.example.schematicsfix.RetryScheduler;
+import com.example.schematicsfix.SchematicFixMod;
+import com.example.schematicsfix.SchematicProcessor;
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+public class FailedCommand {
+    private static final int MAX_LINES = 10;
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(
+            Commands.literal("schematic-failed")
+                .requires(source -> source.hasPermission(2))
+                .executes(ctx -> listFailed(ctx.getSource()))
+                .then(Commands.literal("retry")
+                    .executes(ctx -> retryFailed(ctx.getSource())))
+                .then(Commands.literal("clear")
+                    .executes(ctx -> clearFailed(ctx.getSource())))
+        );
+    }
+
+    private static DeadLetterQueue deadLetters(CommandSourceStack source) {
+        RetryScheduler retryScheduler = SchematicFixMod.getRetryScheduler();
+        if (retryScheduler == null) {
+            source.sendFailure(Component.literal("Schematic processing is not running"));
+            return null;
+        }
+        return retryScheduler.getDeadLetters();
+    }
+
+    private static int listFailed(CommandSourceStack source) {
+        DeadLetterQueue deadLetters = deadLetters(source);
+        if (deadLetters == null) return 0;
+
+        List<DeadLetterQueue.Entry> entries = deadLetters.entries();
+        if (entries.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("No failed schematics"), false);
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal(entries.size() + " schematics could not be processed:"), false);
+        for (DeadLetterQueue.Entry entry : entries.subList(0, Math.min(MAX_LINES, entries.size()))) {
+            String line = String.format("%s %s/%s %s after %d attempts: %s",
+                TIME_FORMAT.format(Instant.ofEpochMilli(entry.time())), entry.playerName(),
+                entry.file().getFileName(), entry.failure(), entry.attempts(), entry.message());
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        if (entries.size() > MAX_LINES) {
+            int more = entries.size() - MAX_LINES;
+            source.sendSuccess(() -> Component.literal("... and " + more + " more"), false);
+        }
+        return entries.size();
+    }
+
+    // 重新提交所有失败的文件，成功后会自动从列表中移除
+    private static int retryFailed(CommandSourceStack source) {
+        DeadLetterQueue deadLetters = deadLetters(source);
+        ProcessingPool processingPool = SchematicFixMod.getProcessingPool();
+        if (deadLetters == null || processingPool == null) return 0;
+
+        int submitted = 0;
+        for (DeadLetterQueue.Entry entry : deadLetters.entries()) {
+            if (processingPool.submit(() ->
+                    SchematicProcessor.processSchematicFile(entry.file(), entry.playerName()))) {
+                submitted++;
+            }
+        }
+        int count = submitted;
+        source.sendSuccess(() -> Component.literal("Retrying " + count + " failed schematics"), true);
+        return count;
+    }
+
+    private static int clearFailed(CommandSourceStack source) {
+        DeadLetterQueue deadLetters = deadLetters(source);
+        if (deadLetters == null) return 0;
+
+        int count = deadLetters.size();
+        deadLetters.clear();
+        source.sendSuccess(() -> Component.literal("Cleared " + count + " failed schematics"), true);
+        return count;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.schematicsfix.commands;
+
+import com.example.schematicsfix.Config;
+import com.example.schematicsfix.ImpactReport;
+import com.example.schematicsfix.SchematicFixMod;
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.util.List;
+
+public class ImpactCommand {
+    private static final int MAX_LINES = 10;
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(
+            Commands.literal("schematic-impact")
+                .requires(source -> source.hasPermission(2))
+                .executes(ctx -> showImpact(ctx.getSource()))
+                .then(Commands.literal("save")
+                    .executes(ctx -> saveImpact(ctx.getSource())))
+                .then(Commands.literal("clear")
+                    .executes(ctx -> clearImpact(ctx.getSource())))
+        );
+    }
+
+    private static ImpactReport impactReport(CommandSourceStack source) {
+        ImpactReport impactReport = SchematicFixMod.getImpactReport();
+        if (impactReport == null) {
+            source.sendFailure(Component.literal("Schematic processing is not running"));
+        }
+        return impactReport;
+    }
+
+    // 汇总只报告模式下记录的影响，按玩家和按组件各列出最多的几项
+    private static int showImpact(CommandSourceStack source) {
+        ImpactReport impactReport = impactReport(source);
+        if (impactReport == null) return 0;
+
+        if (!Config.REPORT_ONLY.get()) {
+            source.sendSuccess(() -> Component.literal("Report-only mode is off, schematics are being changed"), false);
+        }
+        int files = impactReport.size();
+        if (files == 0) {
+            source.sendSuccess(() -> Component.literal("No schematics would be changed"), false);
+            return 0;
+        }
+
+        List<ImpactReport.PlayerSummary> players = impactReport.byPlayer();
+        source.sendSuccess(() -> Component.literal(files + " schematics from " + players.size()
+            + " players would be changed:"), false);
+        for (ImpactReport.PlayerSummary player : players.subList(0, Math.min(MAX_LINES, players.size()))) {
+            String line = String.format("  %s: %d rewritten, %d banned, %d components removed",
+                player.playerName(), player.rewritten(), player.banned(), player.removals());
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        sendMore(source, players.size());
+
+        List<ImpactReport.KeySummary> keys = impactReport.byKey();
+        if (!keys.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("Components that would be removed:"), false);
+            for (ImpactReport.KeySummary key : keys.subList(0, Math.min(MAX_LINES, keys.size()))) {
+                String line = String.format("  %s: %d files, %d times", key.key(), key.files(), key.occurrences());
+                source.sendSuccess(() -> Component.literal(line), false);
+            }
+            sendMore(source, keys.size());
+        }
+        return files;
+    }
+
+    private static void sendMore(CommandSourceStack source, int total) {
+        if (total > MAX_LINES) {
+            int more = total - MAX_LINES;
+            source.sendSuccess(() -> Component.literal("  ... and " + more + " more"), false);
+        }
+    }
+
+    private static int saveImpact(CommandSourceStack source) {
+        ImpactReport impactReport = impactReport(source);
+        if (impactReport == null) return 0;
+
+        impactReport.save();
+        source.sendSuccess(() -> Component.literal("Saved the impact of " + impactReport.size() + " schematics to "
+            + impactReport.getDetailFile().getFileName() + " and " + impactReport.getSummaryFile().getFileName()), true);
+        return impactReport.size();
+    }
+
+    private static int clearImpact(CommandSourceStack source) {
+        ImpactReport impactReport = impactReport(source);
+        if (impactReport == null) return 0;
+
+        int count = impactReport.size();
+        impactReport.clear();
+        source.sendSuccess(() -> Component.literal("Cleared the impact of " + count + " schematics"), true);
+        return count;
+    }
+}
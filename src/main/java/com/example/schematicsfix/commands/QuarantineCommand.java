@@ -0,0 +1,154 @@
+package com.example.schematicsfix.commands;
+
+import com.example.schematicsfix.AnomalyPipeline;
+import com.example.schematicsfix.QuarantineStore;
+import com.example.schematicsfix.SchematicFixMod;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+public class QuarantineCommand {
+    private static final int MAX_LINES = 10;
+    private static final int MIN_HASH_PREFIX = 6;
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(
+            Commands.literal("schematic-quarantine")
+                .requires(source -> source.hasPermission(2))
+                .executes(ctx -> showSummary(ctx.getSource()))
+                .then(Commands.literal("list")
+                    .then(Commands.argument("player", StringArgumentType.word())
+                        .executes(ctx -> listPlayer(ctx.getSource(), StringArgumentType.getString(ctx, "player")))))
+                .then(Commands.literal("find")
+                    .then(Commands.argument("hash", StringArgumentType.word())
+                        .executes(ctx -> findHash(ctx.getSource(), StringArgumentType.getString(ctx, "hash")))))
+                .then(Commands.literal("restore")
+                    .then(Commands.argument("hash", StringArgumentType.word())
+                        .then(Commands.argument("player", StringArgumentType.word())
+                            .executes(ctx -> restore(ctx.getSource(), StringArgumentType.getString(ctx, "hash"),
+                                StringArgumentType.getString(ctx, "player"))))))
+        );
+    }
+
+    private static QuarantineStore quarantine(CommandSourceStack source) {
+        AnomalyPipeline pipeline = SchematicFixMod.getAnomalyPipeline();
+        if (pipeline == null) {
+            source.sendFailure(Component.literal("Quarantine store is not available"));
+            return null;
+        }
+        return pipeline.getQuarantine();
+    }
+
+    private static int showSummary(CommandSourceStack source) {
+        QuarantineStore store = quarantine(source);
+        if (store == null) return 0;
+
+        String header = String.format("Quarantine: %d records, %d unique files, %d KiB",
+            store.getEntryCount(), store.getBlobCount(), store.getTotalBytes() / 1024);
+        source.sendSuccess(() -> Component.literal(header), false);
+        Map<String, Integer> counts = store.countsByPlayer();
+        counts.entrySet().stream()
+            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+            .limit(MAX_LINES)
+            .forEach(entry -> source.sendSuccess(
+                () -> Component.literal("  " + entry.getKey() + ": " + entry.getValue()), false));
+        return 1;
+    }
+
+    private static int listPlayer(CommandSourceStack source, String playerName) {
+        QuarantineStore store = quarantine(source);
+        if (store == null) return 0;
+
+        List<QuarantineStore.Entry> entries = store.entriesFor(playerName);
+        if (entries.isEmpty()) {
+            source.sendFailure(Component.literal("No quarantined schematics for " + playerName));
+            return 0;
+        }
+        sendEntries(source, entries);
+        return entries.size();
+    }
+
+    private static int findHash(CommandSourceStack source, String hash) {
+        QuarantineStore store = quarantine(source);
+        if (store == null || !checkPrefix(source, hash)) return 0;
+
+        List<QuarantineStore.Entry> entries = store.find(hash);
+        if (entries.isEmpty()) {
+            source.sendFailure(Component.literal("No quarantined schematic matches " + hash));
+            return 0;
+        }
+        sendEntries(source, entries);
+        return entries.size();
+    }
+
+    // 恢复到该玩家的上传目录，监听器会按当前规则重新检查
+    private static int restore(CommandSourceStack source, String hash, String playerName) {
+        QuarantineStore store = quarantine(source);
+        if (store == null || !checkPrefix(source, hash)) return 0;
+
+        List<QuarantineStore.Entry> entries = store.find(hash).stream()
+            .filter(entry -> entry.playerName().equals(playerName))
+            .toList();
+        if (entries.isEmpty()) {
+            source.sendFailure(Component.literal("No quarantined schematic of " + playerName + " matches " + hash));
+            return 0;
+        }
+        if (entries.stream().map(QuarantineStore.Entry::sha256).distinct().count() > 1) {
+            source.sendFailure(Component.literal("Hash prefix " + hash + " is ambiguous, use more characters"));
+            return 0;
+        }
+
+        QuarantineStore.Entry entry = entries.get(0);
+        Path target = SchematicFixMod.UPLOADED_DIR.resolve(playerName).resolve(entry.fileName());
+        if (!target.normalize().startsWith(SchematicFixMod.UPLOADED_DIR.normalize())) {
+            source.sendFailure(Component.literal("Invalid file name " + entry.fileName()));
+            return 0;
+        }
+        try {
+            store.restore(entry.sha256(), target);
+        } catch (FileAlreadyExistsException e) {
+            source.sendFailure(Component.literal(playerName + "/" + entry.fileName() + " already exists"));
+            return 0;
+        } catch (IOException e) {
+            source.sendFailure(Component.literal("Failed to restore: " + e.getMessage()));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal(
+            "Restored " + playerName + "/" + entry.fileName() + ", it will be checked again with the current rules"), true);
+        return 1;
+    }
+
+    private static boolean checkPrefix(CommandSourceStack source, String hash) {
+        if (hash.length() < MIN_HASH_PREFIX || !hash.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            source.sendFailure(Component.literal("Use at least " + MIN_HASH_PREFIX + " hex characters of the hash"));
+            return false;
+        }
+        return true;
+    }
+
+    private static void sendEntries(CommandSourceStack source, List<QuarantineStore.Entry> entries) {
+        for (QuarantineStore.Entry entry : entries.subList(0, Math.min(MAX_LINES, entries.size()))) {
+            String line = String.format("%s %s %s %s/%s %d KiB (%s)",
+                TIME_FORMAT.format(Instant.ofEpochMilli(entry.time())), entry.sha256().substring(0, 12),
+                entry.action(), entry.playerName(), entry.fileName(), entry.size() / 1024, entry.reason());
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        if (entries.size() > MAX_LINES) {
+            int more = entries.size() - MAX_LINES;
+            source.sendSuccess(() -> Component.literal("... and " + more + " more"), false);
+        }
+    }
+}
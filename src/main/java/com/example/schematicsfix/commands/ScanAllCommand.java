@@ -1,70 +1,159 @@
 package com.example.schematicsfix.commands;
 
+import com.example.schematicsfix.Config;
+import com.example.schematicsfix.ScanJob;
 import com.example.schematicsfix.SchematicFixMod;
-import com.example.schematicsfix.SchematicProcessor;
+import com.example.schematicsfix.SchematicMetrics;
+import com.example.schematicsfix.VerdictCache;
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ScanAllCommand {
+    private static final Pattern DURATION = Pattern.compile("(\\d+)([smhd])");
+    private static final AtomicReference<ScanJob> RUNNING_SCAN = new AtomicReference<>();
+
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
         dispatcher.register(
             Commands.literal("schematic-all")
                 .requires(source -> source.hasPermission(2))
-                .executes(ctx -> scanAllSchematics(ctx.getSource()))
+                .executes(ctx -> scanAllSchematics(ctx.getSource(), 0))
+                .then(Commands.literal("cancel")
+                    .executes(ctx -> cancelScan(ctx.getSource())))
+                .then(Commands.literal("--since")
+                    .executes(ctx -> scanSince(ctx.getSource(), "last"))
+                    .then(Commands.argument("time", StringArgumentType.greedyString())
+                        .executes(ctx -> scanSince(ctx.getSource(), StringArgumentType.getString(ctx, "time")))))
         );
     }
 
-    private static int scanAllSchematics(CommandSourceStack source) {
+    private static int scanSince(CommandSourceStack source, String time) {
+        long since = parseSince(time.trim());
+        if (since <= 0 && time.trim().equalsIgnoreCase("last")) {
+            source.sendFailure(Component.literal("No completed scan recorded yet, run /schematic-all first"));
+            return 0;
+        }
+        if (since <= 0) {
+            source.sendFailure(Component.literal(
+                "Invalid time '" + time + "', use 'last', a duration like 30m/2h/1d, or an ISO date-time"));
+            return 0;
+        }
+        return scanAllSchematics(source, since);
+    }
+
+    private static int cancelScan(CommandSourceStack source) {
+        ScanJob job = RUNNING_SCAN.get();
+        if (job == null) {
+            source.sendFailure(Component.literal("No schematic scan is running"));
+            return 0;
+        }
+        job.cancel();
+        source.sendSuccess(() -> Component.literal("Cancelling schematic scan..."), true);
+        return 1;
+    }
+
+    private static int scanAllSchematics(CommandSourceStack source, long modifiedSince) {
         MinecraftServer server = source.getServer();
         Path uploadedDir = SchematicFixMod.UPLOADED_DIR;
-        
+
         if (!Files.exists(uploadedDir)) {
             source.sendFailure(Component.literal("Uploaded schematics directory not found!"));
             return 0;
         }
-        
-        source.sendSuccess(() -> Component.literal("Starting schematic scan..."), true);
-        
-        AtomicInteger processedCount = new AtomicInteger();
-        AtomicInteger anomalyCount = new AtomicInteger();
-        
-        server.execute(() -> {
-            try (var paths = Files.walk(uploadedDir)) {
-                paths.filter(Files::isRegularFile)
-                     .filter(p -> p.toString().endsWith(".nbt"))
-                     .forEach(file -> {
-                         Path playerDir = file.getParent().getFileName();
-                         if (playerDir != null) {
-                             boolean modified = SchematicProcessor.processSchematicFile(
-                                 server, file, playerDir.toString()
-                             );
-                             
-                             if (modified) {
-                                 anomalyCount.incrementAndGet();
-                             }
-                             processedCount.incrementAndGet();
-                         }
-                     });
-                
-                String resultMsg = String.format(
-                    "Scanned %d schematics, found %d anomalies",
-                    processedCount.get(), anomalyCount.get()
-                );
-                source.sendSuccess(() -> Component.literal(resultMsg), true);
-            } catch (IOException e) {
-                source.sendFailure(Component.literal("Error scanning schematics: " + e.getMessage()));
+
+        ScanJob job = new ScanJob(uploadedDir, modifiedSince, ScanJob.defaultParallelism(),
+            Config.USE_VIRTUAL_THREADS.get(),
+            Config.SCAN_PROGRESS_INTERVAL.get() * 1000L,
+            message -> server.execute(SchematicMetrics.serverTask(
+                () -> source.sendSuccess(() -> Component.literal(message), false))));
+        if (!RUNNING_SCAN.compareAndSet(null, job)) {
+            source.sendFailure(Component.literal("A schematic scan is already running, use /schematic-all cancel to stop it"));
+            return 0;
+        }
+
+        String startMsg = modifiedSince > 0
+            ? "Starting schematic scan of files modified since " + Instant.ofEpochMilli(modifiedSince) + "..."
+            : "Starting schematic scan...";
+        source.sendSuccess(() -> Component.literal(startMsg), true);
+
+        // 扫描在单独的线程中协调，不占用处理池的工作线程；只有进度和结果消息回到服务器线程
+        Thread coordinator = new Thread(() -> {
+            try {
+                ScanJob.Result result = job.run();
+
+                VerdictCache verdictCache = SchematicFixMod.getVerdictCache();
+                if (verdictCache != null) {
+                    verdictCache.save();
+                }
+
+                String resultMsg = switch (result) {
+                    case COMPLETED -> String.format(
+                        "Scanned %d schematics, found %d anomalies in %.1fs",
+                        job.getProcessedCount(), job.getAnomalyCount(), job.getElapsedMillis() / 1000.0
+                    );
+                    case CANCELLED -> "Schematic scan cancelled: " + job.formatProgress();
+                    case FAILED -> "Error scanning schematics, see server log";
+                };
+                if (result == ScanJob.Result.FAILED) {
+                    server.execute(SchematicMetrics.serverTask(() -> source.sendFailure(Component.literal(resultMsg))));
+                } else {
+                    server.execute(SchematicMetrics.serverTask(
+                        () -> source.sendSuccess(() -> Component.literal(resultMsg), true)));
+                }
+            } finally {
+                RUNNING_SCAN.compareAndSet(job, null);
             }
-        });
-        
+        }, "SchematicFix-ScanAll");
+        coordinator.setDaemon(true);
+        coordinator.start();
+
         return 1;
     }
-}
\ No newline at end of file
+
+    // 支持 last、30m/2h/1d 形式的时长，以及ISO日期时间；无法解析或超出范围时返回0
+    private static long parseSince(String time) {
+        if (time.equalsIgnoreCase("last")) {
+            return ScanJob.readLastCompletedScan();
+        }
+
+        Matcher matcher = DURATION.matcher(time);
+        if (matcher.matches()) {
+            long unitMs = switch (matcher.group(2)) {
+                case "s" -> 1000L;
+                case "m" -> 60_000L;
+                case "h" -> 3_600_000L;
+                default -> 86_400_000L;
+            };
+            try {
+                return Math.subtractExact(System.currentTimeMillis(),
+                    Math.multiplyExact(Long.parseLong(matcher.group(1)), unitMs));
+            } catch (NumberFormatException | ArithmeticException e) {
+                return 0;
+            }
+        }
+
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeParseException | ArithmeticException ignored) {
+        }
+        try {
+            return LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | ArithmeticException e) {
+            return 0;
+        }
+    }
+}
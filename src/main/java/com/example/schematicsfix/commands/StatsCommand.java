@@ -0,0 +1,24 @@
+package com.example.schematicsfix.commands;
+
+import com.example.schematicsfix.SchematicMetrics;
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+public class StatsCommand {
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(
+            Commands.literal("schematic-stats")
+                .requires(source -> source.hasPermission(2))
+                .executes(ctx -> showStats(ctx.getSource()))
+        );
+    }
+
+    private static int showStats(CommandSourceStack source) {
+        for (String line : SchematicMetrics.summary()) {
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.schematicsfix.mixin;
+
+import com.example.schematicsfix.UploadInterceptor;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerPlayer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Pseudo;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+// 挂到Create服务端接收蓝图上传的流程上，以字符串指定目标，编译时不依赖Create
+// 所有注入都允许找不到目标，Create改动这些方法后只是退回到文件监听
+@Pseudo
+@Mixin(targets = "com.simibubi.create.content.schematics.ServerSchematicLoader", remap = false)
+public abstract class ServerSchematicLoaderMixin {
+    @Inject(method = "handleNewUpload", at = @At("HEAD"), require = 0, remap = false)
+    private void schematicsfix$onNewUpload(ServerPlayer player, String schematic, long size, BlockPos pos,
+                                           CallbackInfo ci) {
+        UploadInterceptor.onNewUpload(player.getGameProfile().getName(), schematic, size);
+    }
+
+    @Inject(method = "handleWriteRequest", at = @At("HEAD"), require = 0, remap = false)
+    private void schematicsfix$onWriteRequest(ServerPlayer player, String schematic, byte[] data, CallbackInfo ci) {
+        UploadInterceptor.onWrite(player.getGameProfile().getName(), schematic, data);
+    }
+
+    // 检查得出结论之前取消Create的收尾，蓝图桌拿不到这张蓝图
+    @Inject(method = "handleFinishedUpload", at = @At("HEAD"), cancellable = true, require = 0, remap = false)
+    private void schematicsfix$onFinishedUpload(ServerPlayer player, String schematic, CallbackInfo ci) {
+        Object loader = this;
+        if (UploadInterceptor.holdFinished(player.getServer(), player.getGameProfile().getName(), schematic,
+                () -> schematicsfix$finishUpload(loader, player, schematic))) {
+            ci.cancel();
+        }
+    }
+
+    // 放行时重新调用Create的收尾；用反射而不是@Shadow，Create没有这个方法时mixin仍能加载
+    private static void schematicsfix$finishUpload(Object loader, ServerPlayer player, String schematic) {
+        try {
+            loader.getClass().getMethod("handleFinishedUpload", ServerPlayer.class, String.class)
+                .invoke(loader, player, schematic);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to finish schematic upload " + schematic, e);
+        }
+    }
+}
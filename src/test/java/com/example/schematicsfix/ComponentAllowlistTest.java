@@ -0,0 +1,104 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComponentAllowlistTest {
+    private static final ComponentAllowlist.Context BLOCK_ENTITY = ComponentAllowlist.Context.BLOCK_ENTITY;
+    private static final ComponentAllowlist.Context ITEM = ComponentAllowlist.Context.ITEM;
+
+    @Test
+    void exactRules() {
+        ComponentAllowlist allowlist = ComponentAllowlist.compile(TestSchematics.DEFAULT_COMPONENTS);
+        assertTrue(allowlist.isAllowed("create:clipboard_pages", BLOCK_ENTITY));
+        assertTrue(allowlist.isAllowed("create:clipboard_type", ITEM));
+        assertFalse(allowlist.isAllowed("create:clipboard", ITEM));
+        assertFalse(allowlist.isAllowed("create:clipboard_pages_extra", ITEM));
+        assertFalse(allowlist.isAllowed("minecraft:custom_data", BLOCK_ENTITY));
+    }
+
+    @Test
+    void namespaceAndWildcardRules() {
+        ComponentAllowlist allowlist = ComponentAllowlist.compile(List.of("create:*"));
+        assertTrue(allowlist.isAllowed("create:anything", ITEM));
+        assertFalse(allowlist.isAllowed("createaddon:anything", ITEM));
+        assertFalse(allowlist.isAllowed("create", ITEM));
+        // 移除标记的命名空间是"!create"，不会被"create:*"放行
+        assertFalse(allowlist.isAllowed("!create:anything", ITEM));
+
+        ComponentAllowlist all = ComponentAllowlist.compile(List.of("*"));
+        assertTrue(all.isAllowed("examplemod:payload", BLOCK_ENTITY));
+        assertTrue(all.isAllowed("!minecraft:lore", ITEM));
+    }
+
+    @Test
+    void contextPrefixesLimitRules() {
+        ComponentAllowlist allowlist = ComponentAllowlist.compile(List.of(
+            "block_entity|create:*", "item|create:clipboard_type", "item|*"));
+        assertTrue(allowlist.isAllowed("create:clipboard_pages", BLOCK_ENTITY));
+        assertFalse(allowlist.isAllowed("minecraft:lore", BLOCK_ENTITY));
+        assertTrue(allowlist.isAllowed("minecraft:lore", ITEM));
+
+        ComponentAllowlist itemsOnly = ComponentAllowlist.compile(List.of("item|create:clipboard_type"));
+        assertTrue(itemsOnly.isAllowed("create:clipboard_type", ITEM));
+        assertFalse(itemsOnly.isAllowed("create:clipboard_type", BLOCK_ENTITY));
+
+        // 同一个键的两条上下文规则合并
+        ComponentAllowlist both = ComponentAllowlist.compile(List.of("item|create:x", "block_entity|create:x"));
+        assertTrue(both.isAllowed("create:x", ITEM));
+        assertTrue(both.isAllowed("create:x", BLOCK_ENTITY));
+    }
+
+    @Test
+    void invalidRulesAreSkipped() {
+        List<String> configured = List.of("", "  ", "create:*:*", "*:clipboard", "create:clip*",
+            "a b:c", ":*", " create:clipboard_type ");
+        for (String rule : configured.subList(0, configured.size() - 1)) {
+            assertFalse(ComponentAllowlist.isValidRule(rule), rule);
+        }
+        assertFalse(ComponentAllowlist.isValidRule(42));
+
+        ComponentAllowlist allowlist = ComponentAllowlist.compile(configured);
+        assertEquals(List.of("create:clipboard_type"), allowlist.rules());
+        assertTrue(allowlist.isAllowed("create:clipboard_type", ITEM));
+        assertFalse(allowlist.isAllowed("create:clip", ITEM));
+    }
+
+    @Test
+    void largeTablesAndCharBufferKeys() {
+        List<String> configured = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            configured.add("examplemod:component_" + i);
+        }
+        ComponentAllowlist allowlist = ComponentAllowlist.compile(configured);
+
+        // 扫描器传入的是复用缓冲区的CharBuffer视图，只有[position, limit)是键
+        char[] buffer = "examplemod:component_999 garbage".toCharArray();
+        CharBuffer key = CharBuffer.wrap(buffer, 0, 24);
+        assertTrue(allowlist.isAllowed(key, ITEM));
+        assertTrue(allowlist.isAllowed(CharBuffer.wrap(buffer, 0, 23), ITEM));
+        assertFalse(allowlist.isAllowed(CharBuffer.wrap(buffer, 0, 25), ITEM));
+        assertTrue(allowlist.isAllowed("examplemod:component_0", BLOCK_ENTITY));
+        assertFalse(allowlist.isAllowed("examplemod:component_1000", BLOCK_ENTITY));
+    }
+
+    @Test
+    void onlyBlockEntityComponentsUseBlockEntityContext() {
+        ComponentAllowlist.Position block = ComponentAllowlist.Position.ROOT.child("blocks").element();
+        assertEquals(ComponentAllowlist.Position.BLOCK, block);
+        assertEquals(BLOCK_ENTITY, block.child("nbt").componentsContext());
+
+        // 方块实体里的物品、实体和根节点下的其他列表都按物品处理
+        assertEquals(ITEM, block.child("nbt").child("Items").element().componentsContext());
+        assertEquals(ITEM, ComponentAllowlist.Position.ROOT.child("entities").element().child("nbt").componentsContext());
+        assertEquals(ITEM, ComponentAllowlist.Position.ROOT.child("blocks").child("nbt").componentsContext());
+        assertEquals(ITEM, block.child("components").componentsContext());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryIndexTest {
+    private static final int MAGIC = 0x53464458;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reconcileReportsNewAndChangedFiles() throws IOException {
+        Path playerDir = Files.createDirectories(dir.resolve("uploads/alice"));
+        Path a = write(playerDir.resolve("a.nbt"), "a");
+        Path b = write(playerDir.resolve("b.nbt"), "b");
+        write(playerDir.resolve("notes.txt"), "not a schematic");
+        Files.createDirectories(playerDir.resolve("sub.nbt"));
+
+        DirectoryIndex index = new DirectoryIndex();
+        assertEquals(List.of(a, b), sorted(index.reconcile(playerDir, false)));
+        assertEquals(List.of(), index.reconcile(playerDir, false));
+
+        // 修改时间或大小变化都算变化，删除的文件从索引中移除
+        Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() - 60_000));
+        Files.delete(b);
+        Path c = write(playerDir.resolve("c.nbt"), "c");
+        assertEquals(List.of(a, c), sorted(index.reconcile(playerDir, false)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void pendingEntriesAreNotSaved() throws IOException {
+        Path playerDir = Files.createDirectories(dir.resolve("uploads/alice"));
+        Path done = write(playerDir.resolve("done.nbt"), "done");
+        Path waiting = write(playerDir.resolve("waiting.nbt"), "waiting");
+        Path indexFile = dir.resolve("index.bin");
+
+        DirectoryIndex index = new DirectoryIndex();
+        assertEquals(2, index.reconcile(playerDir, true).size());
+        // 只有处理完成的文件记录为非pending
+        index.update(done);
+        index.save(dir.resolve("uploads"), indexFile);
+
+        DirectoryIndex loaded = new DirectoryIndex();
+        assertTrue(loaded.load(dir.resolve("uploads"), indexFile));
+        assertEquals(1, loaded.size());
+        // 停服时还没有结果的文件下次启动时重新处理
+        assertEquals(List.of(waiting), loaded.reconcile(playerDir, true));
+    }
+
+    @Test
+    void loadsBothFormatVersions() throws IOException {
+        Path baseDir = dir.resolve("uploads");
+        Path playerDir = Files.createDirectories(baseDir.resolve("alice"));
+        Path a = write(playerDir.resolve("a.nbt"), "a");
+        Path b = write(playerDir.resolve("b.nbt"), "bb");
+        long modifiedA = Files.getLastModifiedTime(a).toMillis();
+        long modifiedB = Files.getLastModifiedTime(b).toMillis();
+
+        for (int version : new int[]{1, 2}) {
+            Path indexFile = dir.resolve("index-v" + version + ".bin");
+            try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(indexFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(version);
+                output.writeInt(1);
+                output.writeUTF("alice");
+                output.writeInt(2);
+                writeEntry(output, version, "a.nbt", 1, modifiedA);
+                // b保存时的大小与现在不同
+                writeEntry(output, version, "b.nbt", 1, modifiedB);
+            }
+
+            DirectoryIndex index = new DirectoryIndex();
+            assertTrue(index.load(baseDir, indexFile), "version " + version);
+            assertEquals(2, index.size());
+            assertEquals(List.of(b), index.reconcile(playerDir, false), "version " + version);
+        }
+    }
+
+    @Test
+    void unknownOrCorruptIndexIsIgnored() throws IOException {
+        Path baseDir = dir.resolve("uploads");
+        Path future = dir.resolve("future.bin");
+        try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(future)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(3);
+        }
+        Path truncated = dir.resolve("truncated.bin");
+        try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(truncated)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(2);
+            output.writeInt(1);
+            output.writeUTF("alice");
+            output.writeInt(5);
+        }
+
+        DirectoryIndex index = new DirectoryIndex();
+        assertFalse(index.load(baseDir, dir.resolve("missing.bin")));
+        assertFalse(index.load(baseDir, future));
+        assertFalse(index.load(baseDir, truncated));
+        assertEquals(0, index.size());
+    }
+
+    private static void writeEntry(DataOutputStream output, int version, String name, long size, long modifiedTime)
+            throws IOException {
+        output.writeUTF(name);
+        output.writeLong(size);
+        output.writeLong(modifiedTime);
+        if (version == 1) {
+            output.writeByte(0);
+        }
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        return Files.writeString(file, content);
+    }
+
+    private static List<Path> sorted(List<Path> files) {
+        return files.stream().sorted().toList();
+    }
+}
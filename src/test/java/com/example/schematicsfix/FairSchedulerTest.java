@@ -0,0 +1,226 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairSchedulerTest {
+    // 每分钟一个令牌，测试期间不会恢复
+    private static final int SLOW_RATE = 1;
+
+    @TempDir
+    Path dir;
+
+    private final List<Path> processed = new CopyOnWriteArrayList<>();
+    private final List<Path> quarantined = new CopyOnWriteArrayList<>();
+    private final List<Path> dropped = new CopyOnWriteArrayList<>();
+
+    @Test
+    void playersTakeTurns() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        Path blocker = dir.resolve("blocker.nbt");
+        ProcessingPool pool = new ProcessingPool(null, 1, 100, ProcessingPool.RejectionPolicy.ABORT);
+        FairScheduler scheduler = new FairScheduler(pool, new RecordingHandler() {
+            @Override
+            public void process(Path file, String playerName, long queuedAtNanos) {
+                if (file.equals(blocker)) {
+                    started.countDown();
+                    await(proceed);
+                }
+                super.process(file, playerName, queuedAtNanos);
+            }
+        }, 1, 1000, 100, FairScheduler.OverLimitAction.DEFER);
+        scheduler.start();
+        try {
+            // 第一个文件占住唯一的名额，其余文件都在队列中等待
+            scheduler.submit(blocker, "carol");
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (String name : List.of("a1", "a2", "a3")) {
+                scheduler.submit(dir.resolve(name), "alice");
+            }
+            scheduler.submit(dir.resolve("b1"), "bob");
+            scheduler.submit(dir.resolve("b2"), "bob");
+            // 同一文件在队列中只保留一份
+            scheduler.submit(dir.resolve("a1"), "alice");
+            assertEquals(5, scheduler.getQueuedCount());
+            proceed.countDown();
+
+            waitUntil(() -> processed.size() == 6);
+            assertEquals(List.of(blocker, dir.resolve("a1"), dir.resolve("b1"), dir.resolve("a2"),
+                dir.resolve("b2"), dir.resolve("a3")), processed);
+        } finally {
+            proceed.countDown();
+            scheduler.stop();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void deferKeepsFilesOverTheBurst() throws InterruptedException {
+        ProcessingPool pool = new ProcessingPool(null, 2, 100, ProcessingPool.RejectionPolicy.ABORT);
+        FairScheduler scheduler = new FairScheduler(pool, new RecordingHandler(), 4, SLOW_RATE, 2,
+            FairScheduler.OverLimitAction.DEFER);
+        scheduler.start();
+        try {
+            for (String name : List.of("a1", "a2", "a3")) {
+                scheduler.submit(dir.resolve(name), "alice");
+            }
+            scheduler.submit(dir.resolve("b1"), "bob");
+
+            // alice用完两个令牌后第三个文件留在队列中，不影响bob
+            waitUntil(() -> processed.size() == 3);
+            Thread.sleep(100);
+            assertEquals(3, processed.size());
+            assertTrue(processed.contains(dir.resolve("b1")));
+            assertEquals(1, scheduler.getQueuedCount());
+            assertTrue(dropped.isEmpty());
+        } finally {
+            scheduler.stop();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void quarantineSkipsTheCheck() throws InterruptedException {
+        ProcessingPool pool = new ProcessingPool(null, 1, 100, ProcessingPool.RejectionPolicy.ABORT);
+        FairScheduler scheduler = new FairScheduler(pool, new RecordingHandler(), 4, SLOW_RATE, 1,
+            FairScheduler.OverLimitAction.QUARANTINE);
+        scheduler.start();
+        try {
+            scheduler.submit(dir.resolve("a1"), "alice");
+            scheduler.submit(dir.resolve("a2"), "alice");
+            // 超限的文件在提交的线程中直接交给quarantine
+            assertEquals(List.of(dir.resolve("a2")), quarantined);
+
+            waitUntil(() -> processed.size() == 1);
+            assertEquals(List.of(dir.resolve("a1")), processed);
+            assertTrue(dropped.isEmpty());
+        } finally {
+            scheduler.stop();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void droppedFileIsFoundAgainByReconciliation() throws IOException, InterruptedException {
+        Path playerDir = Files.createDirectories(dir.resolve("alice"));
+        Path first = Files.writeString(playerDir.resolve("first.nbt"), "first");
+        Path file = Files.writeString(playerDir.resolve("second.nbt"), "second");
+        DirectoryIndex index = new DirectoryIndex();
+        ProcessingPool pool = new ProcessingPool(null, 1, 100, ProcessingPool.RejectionPolicy.ABORT);
+        // 与监听器相同：处理后记录状态，丢弃时移出索引
+        FairScheduler scheduler = new FairScheduler(pool, new RecordingHandler() {
+            @Override
+            public void process(Path file, String playerName, long queuedAtNanos) {
+                index.update(file);
+                super.process(file, playerName, queuedAtNanos);
+            }
+
+            @Override
+            public void dropped(Path file) {
+                index.remove(file);
+                super.dropped(file);
+            }
+        }, 4, SLOW_RATE, 1, FairScheduler.OverLimitAction.DROP);
+        scheduler.start();
+        try {
+            assertEquals(List.of(first, file), sorted(index.reconcile(playerDir, true)));
+            scheduler.submit(first, "alice");
+            scheduler.submit(file, "alice");
+            assertEquals(List.of(file), dropped);
+            waitUntil(() -> processed.size() == 1);
+
+            // 连续两次被丢弃后，下一次对账仍然会交出这个文件
+            assertEquals(List.of(file), index.reconcile(playerDir, true));
+            scheduler.submit(file, "alice");
+            assertEquals(List.of(file, file), dropped);
+            assertEquals(List.of(file), index.reconcile(playerDir, true));
+
+            // 处理过的文件没有变化时不再交出
+            assertEquals(List.of(first), processed);
+            assertEquals(0, scheduler.getQueuedCount());
+        } finally {
+            scheduler.stop();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void rejectedTasksAreReportedAsDropped() throws InterruptedException {
+        CountDownLatch proceed = new CountDownLatch(1);
+        // 一个工作线程、队列长度为1：第三个任务会被拒绝
+        ProcessingPool pool = new ProcessingPool(null, 1, 1, ProcessingPool.RejectionPolicy.ABORT);
+        FairScheduler scheduler = new FairScheduler(pool, new RecordingHandler() {
+            @Override
+            public void process(Path file, String playerName, long queuedAtNanos) {
+                await(proceed);
+                super.process(file, playerName, queuedAtNanos);
+            }
+        }, 4, 1000, 100, FairScheduler.OverLimitAction.DEFER);
+        scheduler.start();
+        try {
+            for (String name : List.of("a1", "a2", "a3")) {
+                scheduler.submit(dir.resolve(name), "alice");
+            }
+            waitUntil(() -> dropped.size() == 1);
+            assertEquals(List.of(dir.resolve("a3")), dropped);
+            proceed.countDown();
+
+            waitUntil(() -> processed.size() == 2);
+            waitUntil(() -> scheduler.getInFlightCount() == 0);
+        } finally {
+            proceed.countDown();
+            scheduler.stop();
+            pool.shutdown();
+        }
+    }
+
+    private class RecordingHandler implements FairScheduler.Handler {
+        @Override
+        public void process(Path file, String playerName, long queuedAtNanos) {
+            processed.add(file);
+        }
+
+        @Override
+        public void quarantine(Path file, String playerName) {
+            quarantined.add(file);
+        }
+
+        @Override
+        public void dropped(Path file) {
+            dropped.add(file);
+        }
+    }
+
+    private static List<Path> sorted(List<Path> files) {
+        return files.stream().sorted().toList();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImpactReportTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsWhatWouldHappenToEachFile() throws IOException {
+        ImpactReport report = new ImpactReport(dir, dir.resolve("impact.jsonl"), dir.resolve("impact.tsv"));
+        Path banned = dir.resolve("alice/banned.nbt");
+        Path limited = dir.resolve("alice/limited.nbt");
+        report.record(banned, "alice", SchematicProcessor.Inspection.banned("banned keyword", "minecraft:bedrock", "note"));
+        report.recordQuarantine(limited, "alice", "upload rate limit exceeded");
+
+        assertEquals(List.of(new ImpactReport.PlayerSummary("alice", 0, 2, 0)), report.byPlayer());
+        report.save();
+        List<String> details = Files.readAllLines(dir.resolve("impact.jsonl"));
+        assertEquals(2, details.size());
+        assertTrue(details.get(0).contains("\"file\":\"alice/banned.nbt\",\"action\":\"banned\""), details.get(0));
+        assertTrue(details.get(1).contains("\"file\":\"alice/limited.nbt\",\"action\":\"quarantined\""), details.get(1));
+
+        // 文件之后检查为干净时移出报告
+        report.remove(limited);
+        assertEquals(1, report.size());
+    }
+}
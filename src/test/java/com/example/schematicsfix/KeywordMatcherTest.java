@@ -0,0 +1,92 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 自动机的结果必须与逐个关键词忽略大小写的contains一致
+class KeywordMatcherTest {
+    @Test
+    void matchesLikeContainsIgnoringCase() {
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            List<String> keywords = new ArrayList<>();
+            for (int i = 1 + random.nextInt(8); i > 0; i--) {
+                keywords.add(randomText(random, 1 + random.nextInt(4)));
+            }
+            KeywordMatcher matcher = new KeywordMatcher(keywords);
+            for (int i = 0; i < 50; i++) {
+                String text = randomText(random, random.nextInt(24));
+                int index = matcher.match(text);
+                String context = keywords + " in " + text;
+                assertEquals(containsAny(keywords, text), index >= 0, context);
+                if (index >= 0) {
+                    assertTrue(contains(text, keywords.get(index)), context);
+                }
+            }
+        }
+    }
+
+    @Test
+    void overlappingKeywords() {
+        // 经典的失败指针用例：扫描到"she"时通过失败链同时命中"he"
+        KeywordMatcher matcher = new KeywordMatcher(List.of("he", "she", "his", "hers"));
+        assertTrue(matcher.match("ushers") >= 0);
+        assertEquals(0, new KeywordMatcher(List.of("he", "hers")).match("xhe"));
+        assertEquals("he", matcher.keyword(matcher.match("ahex")));
+        assertEquals(-1, matcher.match("hs sh ehs"));
+    }
+
+    @Test
+    void ignoresCaseOnBothSides() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("Minecraft:Command_Block"));
+        assertEquals(0, matcher.match("MINECRAFT:COMMAND_BLOCK"));
+        assertEquals(0, matcher.match("give minecraft:command_block 64"));
+        assertEquals(-1, matcher.match("minecraft:command"));
+    }
+
+    @Test
+    void emptyKeywordMatchesEverything() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("minecraft:bedrock", ""));
+        assertEquals(1, matcher.match(""));
+        assertEquals(1, matcher.match("stone"));
+        assertEquals(-1, new KeywordMatcher(List.of()).match("stone"));
+    }
+
+    @Test
+    void matchesCharArrayRange() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("bedrock"));
+        char[] chars = "minecraft:bedrock".toCharArray();
+        assertEquals(0, matcher.match(chars, 0, chars.length));
+        assertEquals(0, matcher.match(chars, 10, 7));
+        // 范围之外的字符不参与匹配
+        assertEquals(-1, matcher.match(chars, 0, 16));
+        assertEquals(-1, matcher.match(chars, 11, 6));
+    }
+
+    private static String randomText(Random random, int length) {
+        String alphabet = "abAB:_";
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private static boolean containsAny(List<String> keywords, String text) {
+        for (String keyword : keywords) {
+            if (contains(text, keyword)) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(String text, String keyword) {
+        return text.toLowerCase(Locale.ROOT).contains(keyword.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NbtTraversalTest {
+    @Test
+    void depthLimit() throws SchematicLimitException {
+        ScanRules rules = TestSchematics.rules(TestSchematics.DEFAULT_COMPONENTS, List.of(), false, 16, 1000);
+        assertEquals(-1, new NbtTraversal(rules, true).run(nested(16)));
+        assertThrows(SchematicLimitException.class, () -> new NbtTraversal(rules, true).run(nested(17)));
+    }
+
+    @Test
+    void nodeLimit() throws SchematicLimitException {
+        CompoundTag root = SchematicFixtures.create(SchematicFixtures.Shape.SMALL_HOUSE);
+        ScanRules limited = TestSchematics.rules(TestSchematics.DEFAULT_COMPONENTS, List.of(), false, 512, 1000);
+        assertThrows(SchematicLimitException.class, () -> new NbtTraversal(limited, true).run(root));
+        assertEquals(-1, new NbtTraversal(TestSchematics.defaultRules(false), true).run(root));
+    }
+
+    @Test
+    void deepNestingDoesNotUseThreadStack() {
+        // 显式栈遍历，深度远超线程栈能承受的递归层数也不会StackOverflowError
+        ScanRules rules = TestSchematics.rules(List.of(), List.of("minecraft:bedrock"), false,
+            Integer.MAX_VALUE, Integer.MAX_VALUE);
+        CompoundTag root = nested(200_000);
+        assertDoesNotThrow(() -> assertEquals(-1, new NbtTraversal(rules, true).run(root)));
+    }
+
+    @Test
+    void stopsAtFirstKeywordAndRecordsItsPath() throws SchematicLimitException {
+        ScanRules rules = TestSchematics.rules(TestSchematics.DEFAULT_COMPONENTS, List.of("minecraft:oak_sign"), false);
+        CompoundTag root = SchematicFixtures.create(SchematicFixtures.Shape.SMALL_HOUSE);
+
+        NbtTraversal traversal = new NbtTraversal(rules, true, true);
+        assertEquals(0, traversal.run(root));
+        assertEquals("palette[5].Name", traversal.matchedPath());
+
+        // 不记录路径时只返回下标
+        NbtTraversal plain = new NbtTraversal(rules, true);
+        assertEquals(0, plain.run(root));
+        assertNull(plain.matchedPath());
+    }
+
+    @Test
+    void removesDisallowedComponentsAndRecordsWhere() throws SchematicLimitException {
+        CompoundTag root = SchematicFixtures.create(SchematicFixtures.Shape.MANY_COMPONENTS);
+        NbtTraversal traversal = new NbtTraversal(TestSchematics.defaultRules(false), true, true);
+        assertEquals(-1, traversal.run(root));
+        assertTrue(traversal.isModified());
+        assertEquals(64, traversal.removedKeys().size());
+        assertFalse(traversal.removals().isEmpty());
+        assertTrue(traversal.removals().get(0).path().startsWith("blocks["), traversal.removals().get(0).path());
+
+        // 清理后的树再遍历一次不再有改动
+        NbtTraversal again = new NbtTraversal(TestSchematics.defaultRules(false), true);
+        assertEquals(-1, again.run(root));
+        assertFalse(again.isModified());
+    }
+
+    // 根节点下套depth层列表，最内层是一个字符串
+    private static CompoundTag nested(int depth) {
+        ListTag inner = new ListTag();
+        inner.add(StringTag.valueOf("minecraft:stone"));
+        for (int i = 1; i < depth; i++) {
+            ListTag outer = new ListTag();
+            outer.add(inner);
+            inner = outer;
+        }
+        CompoundTag root = new CompoundTag();
+        root.put("blocks", inner);
+        return root;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuarantineStoreTest {
+    private static final long NOW = System.currentTimeMillis();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void moveInStoresEachContentOnce() throws IOException {
+        QuarantineStore store = store(1 << 20, 0);
+        Path first = write("uploads/alice/a.nbt", "same content");
+        Path second = write("uploads/bob/b.nbt", "same content");
+
+        String sha256 = store.moveIn(first);
+        assertEquals(sha256(bytes("same content")), sha256);
+        assertFalse(Files.exists(first));
+        store.record("alice", NOW, sha256, "quarantined", "a.nbt", "test");
+
+        assertEquals(sha256, store.moveIn(second));
+        assertFalse(Files.exists(second));
+        store.record("bob", NOW, sha256, "quarantined", "b.nbt", "test");
+
+        assertArrayEquals(bytes("same content"), Files.readAllBytes(store.blobPath(sha256)));
+        assertEquals(1, store.getBlobCount());
+        assertEquals(2, store.find(sha256.substring(0, 8)).size());
+        assertEquals(List.of(), tempFiles());
+    }
+
+    @Test
+    void pinnedContentIsNotPruned() throws IOException {
+        QuarantineStore store = store(1 << 20, 0);
+        String kept = sha256(bytes("kept"));
+        String orphan = sha256(bytes("orphan"));
+        store.writeBlob(kept, bytes("kept"));
+        store.writeBlob(orphan, bytes("orphan"));
+
+        // 备份完成但还没有记录的内容没有被引用，只有pin能让它在清理中保留
+        store.pin(kept);
+        store.load();
+        assertTrue(Files.exists(store.blobPath(kept)));
+        assertFalse(Files.exists(store.blobPath(orphan)));
+
+        store.unpin(kept);
+        store.load();
+        assertFalse(Files.exists(store.blobPath(kept)));
+    }
+
+    @Test
+    void expiredEntriesAndTheirContentAreRemoved() throws IOException {
+        QuarantineStore store = store(1 << 20, 1);
+        String old = saved(store, "old");
+        String recent = saved(store, "recent");
+        store.record("alice", NOW - TimeUnit.DAYS.toMillis(2), old, "banned", "old.nbt", "test");
+        store.record("alice", NOW, recent, "banned", "recent.nbt", "test");
+
+        store.prune(NOW);
+        assertEquals(1, store.getEntryCount());
+        assertFalse(Files.exists(store.blobPath(old)));
+
+        // 清理后的索引重新读取时保持一致
+        QuarantineStore reloaded = store(1 << 20, 1);
+        reloaded.load();
+        assertEquals(List.of(recent), reloaded.entriesFor("alice").stream().map(QuarantineStore.Entry::sha256).toList());
+        assertEquals(bytes("recent").length, reloaded.getTotalBytes());
+    }
+
+    @Test
+    void sizeCapEvictsLeastRecentlySeenContent() throws IOException {
+        // 每份内容8字节，上限只够两份
+        QuarantineStore store = store(20, 0);
+        String a = saved(store, "aaaaaaaa");
+        String b = saved(store, "bbbbbbbb");
+        String c = saved(store, "cccccccc");
+        store.record("alice", 1000, a, "banned", "a.nbt", "test");
+        store.record("alice", 2000, b, "banned", "b.nbt", "test");
+        // a再次出现，b成为最久未出现的内容
+        store.record("bob", 3000, a, "banned", "a.nbt", "test");
+        store.record("bob", 4000, c, "banned", "c.nbt", "test");
+
+        assertEquals(16, store.getTotalBytes());
+        assertFalse(Files.exists(store.blobPath(b)));
+        assertTrue(store.find(b).isEmpty());
+        assertTrue(Files.exists(store.blobPath(a)));
+        assertTrue(Files.exists(store.blobPath(c)));
+        assertEquals(3, store.getEntryCount());
+    }
+
+    @Test
+    void restoreNeverOverwrites() throws IOException {
+        QuarantineStore store = store(1 << 20, 0);
+        String sha256 = saved(store, "quarantined");
+        store.record("alice", NOW, sha256, "banned", "a.nbt", "test");
+
+        Path target = dir.resolve("uploads/alice/a.nbt");
+        store.restore(sha256, target);
+        assertArrayEquals(bytes("quarantined"), Files.readAllBytes(target));
+
+        // 玩家已经上传了同名文件
+        Files.writeString(target, "new upload");
+        assertThrows(FileAlreadyExistsException.class, () -> store.restore(sha256, target));
+        assertEquals("new upload", Files.readString(target));
+        try (Stream<Path> files = Files.list(target.getParent())) {
+            assertEquals(List.of(target), files.toList());
+        }
+    }
+
+    @Test
+    void linkAndCopyOnlyKeepContentMatchingTheHash() throws IOException {
+        QuarantineStore store = store(1 << 20, 0);
+        Path file = write("uploads/alice/a.nbt", "original");
+        String sha256 = sha256(bytes("original"));
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        // 读取内容之后文件被改写：属性不同，链接会指向错误的内容
+        assertFalse(store.linkBlob(file, sha256, attributes.size() + 1, attributes.lastModifiedTime().toMillis()));
+        assertFalse(Files.exists(store.blobPath(sha256)));
+
+        Files.writeString(file, "modified");
+        assertThrows(FileBusyException.class, () -> store.copyBlob(file, sha256));
+        assertFalse(Files.exists(store.blobPath(sha256)));
+
+        Files.writeString(file, "original");
+        store.copyBlob(file, sha256);
+        assertArrayEquals(bytes("original"), Files.readAllBytes(store.blobPath(sha256)));
+
+        Path other = write("uploads/bob/b.nbt", "linked");
+        String linked = sha256(bytes("linked"));
+        BasicFileAttributes otherAttributes = Files.readAttributes(other, BasicFileAttributes.class);
+        assertTrue(store.linkBlob(other, linked, otherAttributes.size(), otherAttributes.lastModifiedTime().toMillis()));
+        assertArrayEquals(bytes("linked"), Files.readAllBytes(store.blobPath(linked)));
+        assertEquals(List.of(), tempFiles());
+    }
+
+    private QuarantineStore store(long maxBytes, int retentionDays) {
+        return new QuarantineStore(dir.resolve("anomalies"), maxBytes, retentionDays);
+    }
+
+    private String saved(QuarantineStore store, String content) throws IOException {
+        String sha256 = sha256(bytes(content));
+        store.writeBlob(sha256, bytes(content));
+        return sha256;
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return file;
+    }
+
+    private List<Path> tempFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(dir.resolve("anomalies"))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".tmp")).toList();
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(byte[] content) {
+        return HexFormat.of().formatHex(VerdictCache.newDigest().digest(content));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetrySchedulerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void classifiesFailures() {
+        assertEquals(RetryScheduler.Failure.GONE, RetryScheduler.classify(new NoSuchFileException("a.nbt")));
+        assertEquals(RetryScheduler.Failure.CORRUPT, RetryScheduler.classify(new SchematicLimitException("too deep")));
+        assertEquals(RetryScheduler.Failure.CORRUPT, RetryScheduler.classify(new InvalidSchematicException("bad")));
+        assertEquals(RetryScheduler.Failure.CORRUPT, RetryScheduler.classify(new UTFDataFormatException()));
+        assertEquals(RetryScheduler.Failure.CORRUPT, RetryScheduler.classify(new ZipException("Not in GZIP format")));
+        assertEquals(RetryScheduler.Failure.TRANSIENT, RetryScheduler.classify(new FileBusyException("busy")));
+        assertEquals(RetryScheduler.Failure.TRANSIENT, RetryScheduler.classify(new EOFException()));
+        assertEquals(RetryScheduler.Failure.TRANSIENT, RetryScheduler.classify(new AccessDeniedException("a.nbt")));
+        assertEquals(RetryScheduler.Failure.TRANSIENT, RetryScheduler.classify(new RejectedExecutionException()));
+        assertEquals(RetryScheduler.Failure.IO, RetryScheduler.classify(new IOException("disk error")));
+        assertEquals(RetryScheduler.Failure.UNEXPECTED, RetryScheduler.classify(new IllegalStateException()));
+    }
+
+    @Test
+    void classifiesByCause() {
+        // 包装后的异常按原因链中第一个可识别的类型分类
+        assertEquals(RetryScheduler.Failure.TRANSIENT,
+            RetryScheduler.classify(new UncheckedIOException(new EOFException())));
+        assertEquals(RetryScheduler.Failure.CORRUPT,
+            RetryScheduler.classify(new ExecutionException(new RuntimeException(new ZipException("bad")))));
+        assertEquals(RetryScheduler.Failure.GONE,
+            RetryScheduler.classify(new IOException(new NoSuchFileException("a.nbt"))));
+        // 无法识别的原因按最外层异常分类
+        assertEquals(RetryScheduler.Failure.IO, RetryScheduler.classify(new IOException(new IllegalStateException())));
+        assertEquals(RetryScheduler.Failure.UNEXPECTED, RetryScheduler.classify(new RuntimeException(new IOException())));
+    }
+
+    @Test
+    void backoffGrowsWithJitterAndCap() {
+        RetryScheduler scheduler = scheduler(5);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                assertBetween(50, 100, scheduler.backoffMillis(0));
+                assertBetween(100, 200, scheduler.backoffMillis(1));
+                assertBetween(400, 800, scheduler.backoffMillis(3));
+                assertBetween(500, 1000, scheduler.backoffMillis(10));
+                // 移位次数有上限，很大的重试次数不会溢出成负数
+                assertBetween(500, 1000, scheduler.backoffMillis(40));
+            }
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    void onlyRetryableFailuresAreRetried() {
+        RetryScheduler scheduler = scheduler(3);
+        try {
+            Path corrupt = dir.resolve("corrupt.nbt");
+            scheduler.onFailure(corrupt, "player", 0, new InvalidSchematicException("bad"));
+            assertTrue(scheduler.getDeadLetters().contains(corrupt));
+            assertEquals(0, scheduler.getPendingCount());
+
+            Path busy = dir.resolve("busy.nbt");
+            scheduler.onFailure(busy, "player", 0, new FileBusyException("busy"));
+            assertFalse(scheduler.getDeadLetters().contains(busy));
+            assertEquals(1, scheduler.getPendingCount());
+
+            // 最后一次尝试失败后进入死信队列
+            Path exhausted = dir.resolve("exhausted.nbt");
+            scheduler.onFailure(exhausted, "player", 2, new EOFException());
+            assertTrue(scheduler.getDeadLetters().contains(exhausted));
+            assertEquals(3, scheduler.getDeadLetters().entries().stream()
+                .filter(entry -> entry.file().equals(exhausted)).findFirst().orElseThrow().attempts());
+
+            // 文件已删除时同时移出死信队列
+            scheduler.onFailure(corrupt, "player", 0, new NoSuchFileException("corrupt.nbt"));
+            assertFalse(scheduler.getDeadLetters().contains(corrupt));
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    private RetryScheduler scheduler(int maxAttempts) {
+        // 重试间隔远大于测试时长，安排的重试不会真正执行
+        DeadLetterQueue deadLetters = new DeadLetterQueue(dir, dir.resolve("dead_letters.tsv"));
+        return new RetryScheduler(null, deadLetters, maxAttempts, 100, 1000);
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value >= min && value <= max, value + " not in [" + min + ", " + max + "]");
+    }
+}
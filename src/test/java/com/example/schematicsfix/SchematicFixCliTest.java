@@ -0,0 +1,216 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 规则使用配置默认值：只保留Create剪贴板组件，禁止基岩和命令方块
+class SchematicFixCliTest {
+    private static final Pattern REPORT_LINE = Pattern.compile("\\{\"file\":\"(.*?)\".*?\"verdict\":\"(\\w+)\"");
+    // 超过tar头中100字节的文件名，需要GNU长文件名条目
+    private static final String LONG_NAME = "players/" + "a".repeat(120) + "/banned.nbt";
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tar", "tar.gz", "zip"})
+    void sanitizesArchives(String format) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        byte[] clean = schematic(SchematicFixtures.Shape.SMALL_HOUSE, null);
+        entries.put("players/", null);
+        entries.put("clean.nbt", clean);
+        entries.put("players/alice/rewritten.nbt", schematic(SchematicFixtures.Shape.MANY_COMPONENTS, null));
+        entries.put(LONG_NAME, schematic(SchematicFixtures.Shape.SMALL_HOUSE, "minecraft:command_block"));
+        entries.put("pax/renamed.nbt", clean);
+        entries.put("../escape.nbt", clean);
+        entries.put("readme.txt", "not a schematic".getBytes(StandardCharsets.UTF_8));
+
+        Path archive = dir.resolve("input." + format);
+        Files.write(archive, switch (format) {
+            case "tar" -> tar(entries);
+            case "tar.gz" -> TestSchematics.gzip(tar(entries));
+            default -> zip(entries);
+        });
+        Path output = dir.resolve("output");
+        Path report = dir.resolve("report.jsonl");
+
+        assertEquals(2, SchematicFixCli.run(new String[]{archive.toString(), "--output", output.toString(),
+            "--report", report.toString(), "--threads", "2"}));
+
+        Map<String, String> verdicts = verdicts(report);
+        assertEquals(Map.of(
+            "clean.nbt", "clean",
+            "players/alice/rewritten.nbt", "rewritten",
+            LONG_NAME, "banned",
+            "pax/renamed.nbt", "clean",
+            "../escape.nbt", "failed"
+        ), verdicts);
+
+        assertArrayEquals(clean, Files.readAllBytes(output.resolve("clean.nbt")));
+        assertArrayEquals(clean, Files.readAllBytes(output.resolve("pax/renamed.nbt")));
+        CompoundTag rewritten = TestSchematics.read(TestSchematics.gunzip(
+            Files.readAllBytes(output.resolve("players/alice/rewritten.nbt"))));
+        CompoundTag expected = SchematicFixtures.create(SchematicFixtures.Shape.MANY_COMPONENTS);
+        new NbtTraversal(TestSchematics.defaultRules(false), false).run(expected);
+        assertEquals(expected, rewritten);
+
+        assertFalse(Files.exists(output.resolve(LONG_NAME)));
+        assertFalse(Files.exists(dir.resolve("escape.nbt")));
+        assertFalse(Files.exists(output.resolve("readme.txt")));
+    }
+
+    @Test
+    void dryRunWritesNothing() throws IOException {
+        Path input = Files.createDirectories(dir.resolve("input/player"));
+        Files.write(input.resolve("clean.nbt"), schematic(SchematicFixtures.Shape.SMALL_HOUSE, null));
+        Files.write(input.resolve("banned.nbt"), schematic(SchematicFixtures.Shape.SMALL_HOUSE, "minecraft:bedrock"));
+        Path report = dir.resolve("report.jsonl");
+
+        assertEquals(2, SchematicFixCli.run(new String[]{dir.resolve("input").toString(), "--dry-run",
+            "--report", report.toString()}));
+        assertEquals(Map.of("player/clean.nbt", "clean", "player/banned.nbt", "banned"), verdicts(report));
+        // 只报告时记录命中关键词的NBT路径
+        assertTrue(Files.readString(report).contains("\"keywordPath\":\"note\""), Files.readString(report));
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void cleanInputExitsWithZero() throws IOException {
+        Path input = Files.createDirectories(dir.resolve("input"));
+        Files.write(input.resolve("clean.nbt"), schematic(SchematicFixtures.Shape.SMALL_HOUSE, null));
+        Path report = dir.resolve("report.jsonl");
+
+        assertEquals(0, SchematicFixCli.run(new String[]{input.toString(), "--output", dir.resolve("output").toString(),
+            "--report", report.toString()}));
+        assertEquals(Map.of("clean.nbt", "clean"), verdicts(report));
+    }
+
+    @Test
+    void usageErrors() throws IOException {
+        Path input = Files.createDirectories(dir.resolve("input"));
+        assertEquals(1, SchematicFixCli.run(new String[]{input.toString()}));
+        assertEquals(1, SchematicFixCli.run(new String[]{dir.resolve("missing").toString(), "--dry-run"}));
+        assertEquals(1, SchematicFixCli.run(new String[]{input.toString(), "--dry-run", "--threads", "0"}));
+        assertEquals(1, SchematicFixCli.run(new String[]{input.toString(), "--output", input.resolve("out").toString()}));
+    }
+
+    private static byte[] schematic(SchematicFixtures.Shape shape, String note) throws IOException {
+        CompoundTag root = SchematicFixtures.create(shape);
+        if (note != null) {
+            root.putString("note", note);
+        }
+        return TestSchematics.schematic(root);
+    }
+
+    private static Map<String, String> verdicts(Path report) throws IOException {
+        Map<String, String> verdicts = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(report)) {
+            Matcher matcher = REPORT_LINE.matcher(line);
+            assertTrue(matcher.find(), line);
+            verdicts.put(matcher.group(1), matcher.group(2));
+        }
+        return verdicts;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                if (entry.getValue() != null) {
+                    zip.write(entry.getValue());
+                }
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // 按文件名选择tar的不同写法：ustar的prefix字段、GNU长文件名、pax扩展头；值为null时写目录
+    private static byte[] tar(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            String name = entry.getKey();
+            byte[] data = entry.getValue();
+            if (data == null) {
+                writeTarEntry(bytes, name, "", (byte) '5', new byte[0]);
+            } else if (name.length() > 100) {
+                byte[] longName = (name + "\0").getBytes(StandardCharsets.UTF_8);
+                writeTarEntry(bytes, "././@LongLink", "", (byte) 'L', longName);
+                writeTarEntry(bytes, name.substring(0, 100), "", (byte) '0', data);
+            } else if (name.startsWith("pax/")) {
+                String record = "path=" + name + "\n";
+                // 长度字段包含自身的位数
+                int length = record.length() + 2;
+                while (String.valueOf(length).length() + 1 + record.length() != length) {
+                    length++;
+                }
+                byte[] pax = (length + " " + record).getBytes(StandardCharsets.UTF_8);
+                writeTarEntry(bytes, "PaxHeaders/renamed.nbt", "", (byte) 'x', pax);
+                writeTarEntry(bytes, "renamed-in-header.nbt", "", (byte) '0', data);
+            } else if (name.indexOf('/') > 0 && !name.startsWith("..")) {
+                int slash = name.lastIndexOf('/');
+                writeTarEntry(bytes, name.substring(slash + 1), name.substring(0, slash), (byte) '0', data);
+            } else {
+                writeTarEntry(bytes, name, "", (byte) '0', data);
+            }
+        }
+        // 两个全零块表示归档结束
+        bytes.write(new byte[1024]);
+        return bytes.toByteArray();
+    }
+
+    private static void writeTarEntry(OutputStream output, String name, String prefix, byte type, byte[] data)
+            throws IOException {
+        byte[] header = new byte[512];
+        put(header, 0, 100, name);
+        put(header, 100, 8, "0000644");
+        put(header, 108, 8, "0000000");
+        put(header, 116, 8, "0000000");
+        put(header, 124, 12, String.format("%011o", data.length));
+        put(header, 136, 12, String.format("%011o", 0));
+        header[156] = type;
+        put(header, 257, 6, "ustar");
+        put(header, 263, 2, "00");
+        put(header, 345, 155, prefix);
+        // 校验和按字段为空格时计算
+        put(header, 148, 8, "        ");
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        put(header, 148, 8, String.format("%06o\0 ", checksum));
+
+        output.write(header);
+        output.write(data);
+        output.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(length, bytes.length));
+    }
+}
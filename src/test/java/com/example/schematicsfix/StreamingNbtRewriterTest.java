@@ -0,0 +1,78 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// 字节流上的重写必须与树遍历加NbtIo.write得到相同的NBT，分别在规则层和完整的inspect流程上比较
+class StreamingNbtRewriterTest {
+    // 默认规则；只对方块实体放行create，物品只保留clipboard_type（会删除嵌套容器）；全部删除；全部保留
+    private static final List<List<String>> ALLOWLISTS = List.of(
+        TestSchematics.DEFAULT_COMPONENTS,
+        List.of("block_entity|create:*", "item|create:clipboard_type"),
+        List.of(),
+        List.of("*")
+    );
+
+    @ParameterizedTest
+    @EnumSource(SchematicFixtures.Shape.class)
+    void rewriteMatchesTreeTraversal(SchematicFixtures.Shape shape) throws IOException {
+        for (List<String> allowed : ALLOWLISTS) {
+            ScanRules rules = TestSchematics.rules(allowed, List.of(), true);
+            CompoundTag root = SchematicFixtures.create(shape);
+            byte[] original = TestSchematics.write(root);
+
+            NbtTraversal traversal = new NbtTraversal(rules, false);
+            assertEquals(-1, traversal.run(root));
+
+            StreamingNbtRewriter rewriter = new StreamingNbtRewriter(rules);
+            ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(rewritten)) {
+                rewriter.rewrite(new DataInputStream(new ByteArrayInputStream(original)), output);
+            }
+
+            String context = shape + " with " + allowed;
+            assertEquals(traversal.isModified(), rewriter.isModified(), context);
+            assertEquals(root, TestSchematics.read(rewritten.toByteArray()), context);
+            // 两边都只保留前64个组件名作为示例，收集顺序不同，只在没有截断时比较
+            if (traversal.removedKeys().size() < 64) {
+                assertEquals(traversal.removedKeys(), rewriter.removedKeys(), context);
+            }
+            if (!rewriter.isModified()) {
+                // 没有删除任何组件时输出与输入逐字节相同，包括键的顺序
+                assertArrayEquals(original, rewritten.toByteArray(), context);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(SchematicFixtures.Shape.class)
+    void streamingInspectionMatchesTreeInspection(SchematicFixtures.Shape shape) throws IOException {
+        byte[] schematic = TestSchematics.schematic(SchematicFixtures.create(shape));
+        for (List<String> allowed : ALLOWLISTS) {
+            SchematicProcessor.Inspection streaming = SchematicProcessor.inspect(schematic,
+                TestSchematics.rules(allowed, TestSchematics.DEFAULT_KEYWORDS, true));
+            SchematicProcessor.Inspection tree = SchematicProcessor.inspect(schematic,
+                TestSchematics.rules(allowed, TestSchematics.DEFAULT_KEYWORDS, false));
+
+            String context = shape + " with " + allowed;
+            assertEquals(tree.verdict(), streaming.verdict(), context);
+            if (tree.verdict() == VerdictCache.Verdict.REWRITTEN) {
+                assertNotNull(streaming.cleaned(), context);
+                assertEquals(TestSchematics.read(TestSchematics.gunzip(tree.cleaned())),
+                    TestSchematics.read(TestSchematics.gunzip(streaming.cleaned())), context);
+            }
+        }
+    }
+}
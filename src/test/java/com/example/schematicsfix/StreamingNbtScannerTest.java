@@ -0,0 +1,107 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// 流式扫描的结论必须与树遍历一致：命中关键词为BANNED，只需删除组件为NEEDS_REWRITE
+class StreamingNbtScannerTest {
+    @Test
+    void cleanSchematicIsClean() throws IOException {
+        StreamingNbtScanner scanner = new StreamingNbtScanner(TestSchematics.defaultRules(true));
+        assertEquals(StreamingNbtScanner.Verdict.CLEAN,
+            scan(scanner, SchematicFixtures.create(SchematicFixtures.Shape.SMALL_HOUSE)));
+        assertNull(scanner.getMatchedKeyword());
+    }
+
+    @Test
+    void disallowedComponentsNeedRewrite() throws IOException {
+        StreamingNbtScanner scanner = new StreamingNbtScanner(TestSchematics.defaultRules(true));
+        assertEquals(StreamingNbtScanner.Verdict.NEEDS_REWRITE,
+            scan(scanner, SchematicFixtures.create(SchematicFixtures.Shape.MANY_COMPONENTS)));
+    }
+
+    @Test
+    void keywordsMatchIgnoringCase() throws IOException {
+        ScanRules rules = TestSchematics.rules(TestSchematics.DEFAULT_COMPONENTS, List.of("MINECRAFT:OAK_SIGN"), true);
+        StreamingNbtScanner scanner = new StreamingNbtScanner(rules);
+        assertEquals(StreamingNbtScanner.Verdict.BANNED,
+            scan(scanner, SchematicFixtures.create(SchematicFixtures.Shape.SMALL_HOUSE)));
+        assertEquals("MINECRAFT:OAK_SIGN", scanner.getMatchedKeyword());
+    }
+
+    @Test
+    void keywordsInRemovedComponentsAreIgnored() throws IOException {
+        // 组件本身会被删除，其中的内容不会留在重写后的文件里
+        CompoundTag components = new CompoundTag();
+        components.putString("create:clipboard_type", "written");
+        components.putString("examplemod:payload", "minecraft:command_block");
+        StreamingNbtScanner scanner = new StreamingNbtScanner(TestSchematics.defaultRules(true));
+        assertEquals(StreamingNbtScanner.Verdict.NEEDS_REWRITE, scan(scanner, withBlockEntity(components)));
+
+        components.putString("create:clipboard_type", "minecraft:command_block");
+        assertEquals(StreamingNbtScanner.Verdict.BANNED, scan(scanner, withBlockEntity(components)));
+        assertEquals("minecraft:command_block", scanner.getMatchedKeyword());
+    }
+
+    @Test
+    void rootMustBeCompound() {
+        // 根标签为字符串 ""："x"
+        byte[] nbt = {8, 0, 0, 0, 1, 'x'};
+        StreamingNbtScanner scanner = new StreamingNbtScanner(TestSchematics.defaultRules(true));
+        assertThrows(InvalidSchematicException.class,
+            () -> scanner.scan(new DataInputStream(new ByteArrayInputStream(nbt))));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SchematicFixtures.Shape.class)
+    void verdictMatchesTreeTraversal(SchematicFixtures.Shape shape) throws IOException {
+        List<List<String>> keywordSets = List.of(List.of(), TestSchematics.DEFAULT_KEYWORDS,
+            List.of("minecraft:oak_sign"), List.of("examplemod:payload_255"));
+        for (List<String> keywords : keywordSets) {
+            ScanRules rules = TestSchematics.rules(TestSchematics.DEFAULT_COMPONENTS, keywords, true);
+            CompoundTag root = SchematicFixtures.create(shape);
+            byte[] nbt = TestSchematics.write(root);
+
+            NbtTraversal traversal = new NbtTraversal(rules, true);
+            int keyword = traversal.run(root);
+            StreamingNbtScanner.Verdict expected = keyword >= 0 ? StreamingNbtScanner.Verdict.BANNED
+                : traversal.isModified() ? StreamingNbtScanner.Verdict.NEEDS_REWRITE
+                : StreamingNbtScanner.Verdict.CLEAN;
+
+            StreamingNbtScanner scanner = new StreamingNbtScanner(rules);
+            assertEquals(expected, scanner.scan(new DataInputStream(new ByteArrayInputStream(nbt))),
+                shape + " with " + keywords);
+        }
+    }
+
+    private static StreamingNbtScanner.Verdict scan(StreamingNbtScanner scanner, CompoundTag root) throws IOException {
+        return scanner.scan(new DataInputStream(new ByteArrayInputStream(TestSchematics.write(root))));
+    }
+
+    // 只有一个方块实体的最小结构文件
+    private static CompoundTag withBlockEntity(CompoundTag components) {
+        CompoundTag nbt = new CompoundTag();
+        nbt.putString("id", "create:clipboard");
+        nbt.put("components", components.copy());
+        CompoundTag block = new CompoundTag();
+        block.putInt("state", 0);
+        block.put("nbt", nbt);
+        ListTag blocks = new ListTag();
+        blocks.add(block);
+        CompoundTag root = new CompoundTag();
+        root.put("blocks", blocks);
+        return root;
+    }
+}
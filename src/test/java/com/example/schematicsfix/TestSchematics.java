@@ -0,0 +1,69 @@
+package com.example.schematicsfix;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// 测试共用的规则和编码工具，规则直接构造，不读取配置
+final class TestSchematics {
+    static final List<String> DEFAULT_COMPONENTS = List.of("create:clipboard_pages", "create:clipboard_type");
+    static final List<String> DEFAULT_KEYWORDS = List.of("minecraft:bedrock", "minecraft:command_block");
+
+    private TestSchematics() {
+    }
+
+    static ScanRules rules(List<String> allowedComponents, List<String> bannedKeywords, boolean streaming) {
+        return rules(allowedComponents, bannedKeywords, streaming, 512, 5_000_000);
+    }
+
+    static ScanRules rules(List<String> allowedComponents, List<String> bannedKeywords, boolean streaming,
+                           int maxDepth, int maxNodes) {
+        return new ScanRules(true, bannedKeywords, allowedComponents, streaming, 8L * 1024 * 1024,
+            64L * 1024 * 1024, maxDepth, maxNodes, false, 1);
+    }
+
+    static ScanRules defaultRules(boolean streaming) {
+        return rules(DEFAULT_COMPONENTS, DEFAULT_KEYWORDS, streaming);
+    }
+
+    // 未压缩的NBT字节，与解压后的schematic内容相同
+    static byte[] write(CompoundTag root) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            NbtIo.write(root, output);
+        }
+        return bytes.toByteArray();
+    }
+
+    static CompoundTag read(byte[] nbt) throws IOException {
+        return NbtIo.read(new DataInputStream(new ByteArrayInputStream(nbt)), NbtAccounter.unlimitedHeap());
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+            output.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return input.readAllBytes();
+        }
+    }
+
+    // 与Create上传的文件格式相同：gzip压缩的NBT
+    static byte[] schematic(CompoundTag root) throws IOException {
+        return gzip(write(root));
+    }
+}
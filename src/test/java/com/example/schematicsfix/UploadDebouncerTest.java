@@ -0,0 +1,105 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadDebouncerTest {
+    private static final long QUIET_MILLIS = 100;
+
+    @TempDir
+    Path dir;
+
+    private final List<Path> dispatched = new CopyOnWriteArrayList<>();
+    private volatile long dispatchedAtNanos;
+
+    @Test
+    void waitsUntilTheFileStopsChanging() throws IOException, InterruptedException {
+        Path file = Files.writeString(dir.resolve("upload.nbt"), "x");
+        UploadDebouncer debouncer = debouncer();
+        try {
+            debouncer.onEvent(file, "alice");
+            // 只有第一个事件，之后的写入只改变大小和修改时间，靠稳定性检查重新排队
+            long lastWrite = 0;
+            for (int i = 0; i < 8; i++) {
+                Thread.sleep(QUIET_MILLIS / 2);
+                Files.writeString(file, "x", StandardOpenOption.APPEND);
+                lastWrite = System.nanoTime();
+                assertTrue(dispatched.isEmpty(), "dispatched while still being written");
+            }
+
+            waitUntil(() -> dispatched.size() == 1);
+            assertTrue(dispatchedAtNanos - lastWrite >= TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS) / 2);
+            assertEquals(List.of(file), dispatched);
+            assertEquals(0, debouncer.getPendingCount());
+        } finally {
+            debouncer.stop();
+        }
+    }
+
+    @Test
+    void coalescesEventsForTheSameFile() throws IOException, InterruptedException {
+        Path file = Files.writeString(dir.resolve("upload.nbt"), "x");
+        Path other = Files.writeString(dir.resolve("other.nbt"), "y");
+        UploadDebouncer debouncer = debouncer();
+        try {
+            for (int i = 0; i < 5; i++) {
+                debouncer.onEvent(file, "alice");
+            }
+            debouncer.onEvent(other, "bob");
+            assertEquals(2, debouncer.getPendingCount());
+
+            waitUntil(() -> dispatched.size() == 2);
+            Thread.sleep(QUIET_MILLIS * 2);
+            assertEquals(2, dispatched.size());
+
+            // 处理之后的新事件重新排队
+            debouncer.onEvent(file, "alice");
+            waitUntil(() -> dispatched.size() == 3);
+            assertEquals(file, dispatched.get(2));
+        } finally {
+            debouncer.stop();
+        }
+    }
+
+    @Test
+    void deletedFileIsForgotten() throws InterruptedException {
+        UploadDebouncer debouncer = debouncer();
+        try {
+            debouncer.onEvent(dir.resolve("missing.nbt"), "alice");
+            waitUntil(() -> debouncer.getPendingCount() == 0);
+            Thread.sleep(QUIET_MILLIS);
+            assertTrue(dispatched.isEmpty());
+        } finally {
+            debouncer.stop();
+        }
+    }
+
+    private UploadDebouncer debouncer() {
+        UploadDebouncer debouncer = new UploadDebouncer(QUIET_MILLIS, (file, playerName) -> {
+            dispatchedAtNanos = System.nanoTime();
+            dispatched.add(file);
+        });
+        debouncer.start();
+        return debouncer;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.schematicsfix;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VerdictCacheTest {
+    private static final long FINGERPRINT = 42;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void verdictsSurviveSaveAndLoad() throws IOException {
+        Path clean = write("clean.nbt", "clean");
+        Path banned = write("player/banned.nbt", "banned");
+        Path cacheFile = dir.resolve("cache/verdicts.bin");
+
+        VerdictCache cache = new VerdictCache(dir, cacheFile, 100);
+        cache.record(clean, VerdictCache.Verdict.CLEAN, FINGERPRINT);
+        cache.record(banned, VerdictCache.Verdict.BANNED, FINGERPRINT);
+        cache.save();
+
+        VerdictCache loaded = new VerdictCache(dir, cacheFile, 100);
+        loaded.load();
+        assertEquals(2, loaded.size());
+        assertEquals(VerdictCache.Verdict.CLEAN, loaded.lookup(clean, FINGERPRINT));
+        assertEquals(VerdictCache.Verdict.BANNED, loaded.lookup(banned, FINGERPRINT));
+    }
+
+    @Test
+    void changedRulesOrFilesMiss() throws IOException {
+        Path file = write("a.nbt", "content");
+        VerdictCache cache = new VerdictCache(dir, dir.resolve("verdicts.bin"), 100);
+        cache.record(file, VerdictCache.Verdict.CLEAN, FINGERPRINT);
+
+        assertNull(cache.lookup(file, FINGERPRINT + 1));
+        assertNull(cache.lookup(dir.resolve("b.nbt"), FINGERPRINT));
+
+        Files.writeString(file, "longer content");
+        assertNull(cache.lookup(file, FINGERPRINT));
+    }
+
+    @Test
+    void touchedFileWithSameContentHits() throws IOException {
+        Path file = write("a.nbt", "content");
+        VerdictCache cache = new VerdictCache(dir, dir.resolve("verdicts.bin"), 100);
+        cache.record(file, VerdictCache.Verdict.REWRITTEN, FINGERPRINT);
+
+        // 只有修改时间变化，内容哈希相同仍然命中
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60_000));
+        assertEquals(VerdictCache.Verdict.REWRITTEN, cache.lookup(file, FINGERPRINT));
+
+        // 大小相同但内容不同
+        Files.writeString(file, "CONTENT");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 60_000));
+        assertNull(cache.lookup(file, FINGERPRINT));
+    }
+
+    @Test
+    void evictionOrderSurvivesReload() throws IOException {
+        Path a = write("a.nbt", "a");
+        Path b = write("b.nbt", "b");
+        Path c = write("c.nbt", "c");
+        Path d = write("d.nbt", "d");
+        Path cacheFile = dir.resolve("verdicts.bin");
+
+        VerdictCache cache = new VerdictCache(dir, cacheFile, 3);
+        cache.record(a, VerdictCache.Verdict.CLEAN, FINGERPRINT);
+        cache.record(b, VerdictCache.Verdict.CLEAN, FINGERPRINT);
+        cache.record(c, VerdictCache.Verdict.CLEAN, FINGERPRINT);
+        // 访问a后b成为最久未使用的条目
+        assertEquals(VerdictCache.Verdict.CLEAN, cache.lookup(a, FINGERPRINT));
+        cache.save();
+
+        VerdictCache loaded = new VerdictCache(dir, cacheFile, 3);
+        loaded.load();
+        loaded.record(d, VerdictCache.Verdict.CLEAN, FINGERPRINT);
+        assertEquals(3, loaded.size());
+        assertNull(loaded.lookup(b, FINGERPRINT));
+        assertEquals(VerdictCache.Verdict.CLEAN, loaded.lookup(a, FINGERPRINT));
+        assertEquals(VerdictCache.Verdict.CLEAN, loaded.lookup(c, FINGERPRINT));
+        assertEquals(VerdictCache.Verdict.CLEAN, loaded.lookup(d, FINGERPRINT));
+    }
+
+    @Test
+    void unreadableCacheFileIsIgnored() throws IOException {
+        Path cacheFile = write("verdicts.bin", "not a cache");
+        VerdictCache cache = new VerdictCache(dir, cacheFile, 100);
+        cache.load();
+        assertEquals(0, cache.size());
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return file;
+    }
+}